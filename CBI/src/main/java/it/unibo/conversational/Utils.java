@@ -15,7 +15,7 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.stream.Collectors;
 
-import edu.stanford.nlp.util.StringUtils;
+import it.unibo.conversational.algorithms.Levenshtein;
 import it.unibo.conversational.algorithms.MarriageProblem;
 import it.unibo.conversational.algorithms.Parser.Type;
 import it.unibo.conversational.datatypes.Mapping;
@@ -225,7 +225,24 @@ public final class Utils {
    */
   public static double tokenSimilarity(final String first, final String second) {
     double maxl = first.length() > second.length() ? first.length() : second.length();
-    return 1 - (StringUtils.levenshteinDistance(first, second) / maxl);
+    return 1 - (Levenshtein.distance(first.toLowerCase(), second.toLowerCase()) / maxl);
+  }
+
+  /**
+   * Word similarity based on levhenstein distance, computed only if it can reach a given value.
+   * @param first a word
+   * @param second another word
+   * @param atLeast min similarity of interest
+   * @return the similarity if it is at least `atLeast`, otherwise a value lower than `atLeast`
+   */
+  public static double tokenSimilarity(final String first, final String second, final double atLeast) {
+    final double maxl = Math.max(first.length(), second.length());
+    if (maxl == 0 || !(atLeast > 0)) {
+      return tokenSimilarity(first, second);
+    }
+    // distances above maxDistance give a similarity below atLeast (one unit of slack against rounding)
+    final int maxDistance = (int) Math.min(maxl, Math.floor((1 - atLeast) * maxl) + 1);
+    return 1 - (Levenshtein.distance(first.toLowerCase(), second.toLowerCase(), maxDistance) / maxl);
   }
 
   /**
@@ -238,6 +255,35 @@ public final class Utils {
     return tokenSimilarity(Arrays.asList(aTokens), Arrays.asList(bTokens));
   }
 
+  /**
+   * Similarity between two lists of tokens, computed only if it can reach a given value.
+   * Lists whose total lengths are too different are discarded without computing the similarity
+   * (see {@link it.unibo.conversational.algorithms.QGramIndex}), pairs of single tokens use a bounded distance.
+   * @param aTokens a list
+   * @param bTokens another list
+   * @param atLeast min similarity of interest
+   * @return the similarity if it is at least `atLeast`, otherwise a value lower than `atLeast`
+   */
+  public static double tokenSimilarity(final List<String> aTokens, final List<String> bTokens, final double atLeast) {
+    int aLength = 0;
+    int bLength = 0;
+    for (final String t: aTokens) {
+      aLength += t.length();
+    }
+    for (final String t: bTokens) {
+      bLength += t.length();
+    }
+    final double bound = (double) Math.min(aLength, bLength) / Math.max(aLength, bLength);
+    if (aLength > 0 && bLength > 0 && bound < atLeast - 1e-9) {
+      return bound;
+    }
+    if (aTokens.size() == 1 && bTokens.size() == 1) { // a single pair, weighted by its max length as below
+      final double maxl = Math.max(aLength, bLength);
+      return tokenSimilarity(aTokens.get(0), bTokens.get(0), atLeast) * maxl / maxl;
+    }
+    return tokenSimilarity(aTokens, bTokens);
+  }
+
   /**
    * Similarity between two lists of tokens.
    * @param aTokens a list 
@@ -247,23 +293,28 @@ public final class Utils {
   public static double tokenSimilarity(final List<String> aTokens, final List<String> bTokens) {
     //La similarità tra due termini viene calcolando sommando la similarità di ogni coppia di parole associate moltiplicata per la lunghezza massima delle due parole
     // tutto fratto la lunghezza totale delle parole non matchate più la somma delle lunghezze massime
-    final Map<Integer, Integer> matching = MarriageProblem.getBestMatch(aTokens, bTokens);
+    final double[][] similarity = MarriageProblem.similarities(aTokens, bTokens);
+    final Map<Integer, Integer> matching = MarriageProblem.getBestMatch(aTokens, bTokens, similarity);
+    final boolean[] aMatched = new boolean[aTokens.size()];
+    final boolean[] bMatched = new boolean[bTokens.size()];
     double weightedMatch = 0.0, sumLen = 0.0;
     int unmatched = 0;
     for (final Entry<Integer, Integer> e : matching.entrySet()) {
       String s1 = aTokens.get(e.getKey());
       String s2 = bTokens.get(e.getValue());
       final int maxl = Math.max(s1.length(), s2.length());
-      weightedMatch += (tokenSimilarity(s1, s2) * maxl);
+      weightedMatch += (similarity[e.getKey()][e.getValue()] * maxl);
       sumLen += maxl;
+      aMatched[e.getKey()] = true;
+      bMatched[e.getValue()] = true;
     }
     for (int i = 0; i < aTokens.size() && aTokens.size() > bTokens.size(); i++) {
-      if (!matching.containsKey(i)) {
+      if (!aMatched[i]) {
         unmatched += aTokens.get(i).length();
       }
     }
     for (int i = 0; i < bTokens.size() && aTokens.size() < bTokens.size(); i++) {
-      if (!matching.containsValue(i)) {
+      if (!bMatched[i]) {
         unmatched += bTokens.get(i).length();
       }
     }
@@ -0,0 +1,280 @@
+package it.unibo.conversational.algorithms;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Immutable array of strings stored with front coding.
+ * Strings are grouped in blocks of {@link #BLOCK} strings: the first string of a block is stored in full,
+ * the others as the length of the prefix shared with the previous string and the remaining suffix (in UTF-8).
+ * Accessing a string decodes at most a block. Strings are appended one at a time by a {@link Builder}, so they are never held in a list.
+ * If the strings are sorted by {@link #ORDER} (see {@link #builder(boolean)}), lookups binary search the first strings of the blocks.
+ * Duplicates are allowed and kept next to each other.
+ */
+public final class FrontCodedStrings {
+  /** Number of strings in a block. */
+  private static final int BLOCK = 16;
+  /**
+   * Order of the code points, i.e., of the UTF-8 bytes (the order of a binary collation in the database).
+   * It differs from {@link String#compareTo(String)} only between the supplementary characters and the characters from U+E000.
+   */
+  public static final Comparator<String> ORDER = FrontCodedStrings::compare;
+
+  private final int size;
+  /** Whether the strings are sorted by {@link #ORDER}. */
+  private final boolean sorted;
+  /** Encoded strings. */
+  private final byte[] data;
+  /** Offset in `data` of each block. */
+  private final int[] blocks;
+
+  /**
+   * Encode a list of strings.
+   * @param sorted strings, sorted by {@link #ORDER}
+   */
+  public FrontCodedStrings(final List<String> sorted) {
+    this(builder(true).addAll(sorted));
+  }
+
+  private FrontCodedStrings(final Builder b) {
+    size = b.size;
+    sorted = b.sorted;
+    data = Arrays.copyOf(b.data, b.length);
+    blocks = Arrays.copyOf(b.blocks, (size + BLOCK - 1) / BLOCK);
+  }
+
+  /**
+   * @param sorted whether the strings must be sorted by {@link #ORDER}, which enables {@link #lowerBound(String)} and {@link #indexOf(String)}
+   * @return a builder of front coded strings
+   */
+  public static Builder builder(final boolean sorted) {
+    return new Builder(sorted);
+  }
+
+  /** Builder of front coded strings, it is not thread safe. */
+  public static final class Builder {
+    private final boolean sorted;
+    private int size;
+    private String prev;
+    private byte[] data = new byte[256];
+    private int length;
+    private int[] blocks = new int[16];
+
+    private Builder(final boolean sorted) {
+      this.sorted = sorted;
+    }
+
+    /**
+     * Append a string.
+     * @param s string
+     * @return this builder
+     * @throws IllegalArgumentException if the strings must be sorted and `s` is lower than the previous string
+     */
+    public Builder add(final String s) {
+      if (sorted && prev != null && compare(prev, s) > 0) {
+        throw new IllegalArgumentException("Strings are not sorted: " + prev + " > " + s);
+      }
+      int lcp = 0;
+      if (size % BLOCK == 0) {
+        if (size / BLOCK == blocks.length) {
+          blocks = Arrays.copyOf(blocks, blocks.length * 2);
+        }
+        blocks[size / BLOCK] = length;
+      } else {
+        final int max = Math.min(prev.length(), s.length());
+        while (lcp < max && prev.charAt(lcp) == s.charAt(lcp)) {
+          lcp++;
+        }
+        if (lcp > 0 && Character.isHighSurrogate(s.charAt(lcp - 1))) { // do not split a surrogate pair
+          lcp--;
+        }
+        writeVarInt(lcp);
+      }
+      final byte[] suffix = s.substring(lcp).getBytes(StandardCharsets.UTF_8);
+      writeVarInt(suffix.length);
+      ensure(suffix.length);
+      System.arraycopy(suffix, 0, data, length, suffix.length);
+      length += suffix.length;
+      prev = s;
+      size++;
+      return this;
+    }
+
+    /**
+     * Append the strings, in order.
+     * @param strings strings
+     * @return this builder
+     */
+    public Builder addAll(final Iterable<String> strings) {
+      strings.forEach(this::add);
+      return this;
+    }
+
+    /**
+     * @return number of appended strings
+     */
+    public int size() {
+      return size;
+    }
+
+    private void ensure(final int n) {
+      if (length + n > data.length) {
+        data = Arrays.copyOf(data, Math.max(data.length * 2, length + n));
+      }
+    }
+
+    private void writeVarInt(final int value) {
+      ensure(5);
+      int v = value;
+      while ((v & ~0x7F) != 0) {
+        data[length++] = (byte) (v & 0x7F | 0x80);
+        v >>>= 7;
+      }
+      data[length++] = (byte) v;
+    }
+
+    /**
+     * @return the front coded strings
+     */
+    public FrontCodedStrings build() {
+      return new FrontCodedStrings(this);
+    }
+  }
+
+  /**
+   * Compare two strings by code points (see {@link #ORDER}).
+   * @param a a string
+   * @param b another string
+   * @return a negative number, zero, or a positive number if `a` is lower, equal, or greater than `b`
+   */
+  public static int compare(final String a, final String b) {
+    final int n = Math.min(a.length(), b.length());
+    for (int i = 0; i < n; i++) {
+      final char x = a.charAt(i);
+      final char y = b.charAt(i);
+      if (x != y) {
+        return codeUnitOrder(x) - codeUnitOrder(y);
+      }
+    }
+    return a.length() - b.length();
+  }
+
+  /** @return the rank of a UTF-16 code unit in code point order (surrogates above the other characters) */
+  private static int codeUnitOrder(final char c) {
+    if (c < Character.MIN_SURROGATE) {
+      return c;
+    }
+    return c > Character.MAX_SURROGATE ? c - 0x800 : c + 0x2000;
+  }
+
+  /** Sequential decoder of the strings of a block. */
+  private final class Cursor {
+    private int pos;
+    private int index;
+    private String current;
+
+    private Cursor(final int block) {
+      pos = blocks[block];
+      index = block * BLOCK;
+    }
+
+    private int readVarInt() {
+      int value = 0;
+      for (int shift = 0;; shift += 7) {
+        final byte b = data[pos++];
+        value |= (b & 0x7F) << shift;
+        if (b >= 0) {
+          return value;
+        }
+      }
+    }
+
+    /** Decode the string at `index` and move to the next one. */
+    private String next() {
+      final int lcp = index % BLOCK == 0 ? 0 : readVarInt();
+      final int length = readVarInt();
+      final String suffix = new String(data, pos, length, StandardCharsets.UTF_8);
+      pos += length;
+      index++;
+      current = lcp == 0 ? suffix : current.substring(0, lcp) + suffix;
+      return current;
+    }
+  }
+
+  /**
+   * @return number of strings
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * @param i index
+   * @return the i-th string
+   */
+  public String get(final int i) {
+    if (i < 0 || i >= size) {
+      throw new IndexOutOfBoundsException("Index: " + i + ", size: " + size);
+    }
+    final Cursor c = new Cursor(i / BLOCK);
+    String s = c.next();
+    while (c.index <= i) {
+      s = c.next();
+    }
+    return s;
+  }
+
+  /**
+   * @param s string
+   * @return index of the first string greater or equal than `s` by {@link #ORDER} (`size()` if none)
+   * @throws IllegalStateException if the strings are not sorted
+   */
+  public int lowerBound(final String s) {
+    if (!sorted) {
+      throw new IllegalStateException("Strings are not sorted");
+    }
+    // last block whose first string is lower than s
+    int lo = 0;
+    int hi = blocks.length - 1;
+    int block = -1;
+    while (lo <= hi) {
+      final int mid = lo + hi >>> 1;
+      if (compare(new Cursor(mid).next(), s) < 0) {
+        block = mid;
+        lo = mid + 1;
+      } else {
+        hi = mid - 1;
+      }
+    }
+    if (block < 0) {
+      return 0;
+    }
+    final Cursor c = new Cursor(block);
+    final int end = Math.min(size, (block + 1) * BLOCK);
+    while (c.index < end) {
+      if (compare(c.next(), s) >= 0) {
+        return c.index - 1;
+      }
+    }
+    return end;
+  }
+
+  /**
+   * @param s string
+   * @return index of the first occurrence of `s`, or -1 if absent
+   * @throws IllegalStateException if the strings are not sorted
+   */
+  public int indexOf(final String s) {
+    final int i = lowerBound(s);
+    return i < size && get(i).equals(s) ? i : -1;
+  }
+
+  /**
+   * @return size of the encoded strings, in bytes
+   */
+  public long bytes() {
+    return data.length + 4L * blocks.length;
+  }
+}
@@ -0,0 +1,320 @@
+package it.unibo.conversational.algorithms;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Hierarchical navigable small world graph (Malkov and Yashunin) for the approximate nearest neighbours of unit vectors,
+ * the similarity is the dot product (i.e., the cosine).
+ * Each node is in the layers 0 ... l, with l drawn from an exponential distribution; a search descends greedily
+ * from the sparse top layer and then explores layer 0 keeping the `ef` best nodes.
+ * Nodes are added by a single thread; once built, the graph can be searched by any number of threads.
+ * The levels are drawn from a seeded generator, so the same vectors added in the same order give the same graph.
+ */
+public final class Hnsw {
+  private final int dim;
+  /** Max neighbours of a node in the layers above 0 (twice as many in layer 0). */
+  private final int m;
+  /** Candidates kept while inserting a node. */
+  private final int efConstruction;
+  private final double levelMultiplier;
+  private final Random random;
+
+  private int size;
+  private int[] ids = new int[16];
+  private float[][] vectors = new float[16][];
+  /** neighbours[node][layer][0] is the number of neighbours, followed by the neighbours. */
+  private int[][][] neighbours = new int[16][][];
+  private int entry = -1;
+  private int maxLayer = -1;
+
+  /** Nodes visited by a search, marked with the epoch of the search. */
+  private static final class Visited {
+    private int[] marks = new int[0];
+    private int epoch;
+  }
+
+  private static final ThreadLocal<Visited> VISITED = ThreadLocal.withInitial(Visited::new);
+
+  /** Binary heap of longs, the smallest on top. */
+  private static final class LongHeap {
+    private long[] heap = new long[16];
+    private int size;
+
+    private void push(final long v) {
+      if (size == heap.length) {
+        heap = Arrays.copyOf(heap, size * 2);
+      }
+      int i = size++;
+      while (i > 0 && heap[(i - 1) / 2] > v) {
+        heap[i] = heap[(i - 1) / 2];
+        i = (i - 1) / 2;
+      }
+      heap[i] = v;
+    }
+
+    private long peek() {
+      return heap[0];
+    }
+
+    private long pop() {
+      final long top = heap[0];
+      final long v = heap[--size];
+      int i = 0;
+      while (2 * i + 1 < size) {
+        int c = 2 * i + 1;
+        if (c + 1 < size && heap[c + 1] < heap[c]) {
+          c++;
+        }
+        if (heap[c] >= v) {
+          break;
+        }
+        heap[i] = heap[c];
+        i = c;
+      }
+      heap[i] = v;
+      return top;
+    }
+  }
+
+  /**
+   * @param dim dimension of the vectors
+   * @param m max neighbours of a node (e.g., 16)
+   * @param efConstruction candidates kept while inserting a node (e.g., 100)
+   * @param seed seed of the levels
+   */
+  public Hnsw(final int dim, final int m, final int efConstruction, final long seed) {
+    this.dim = dim;
+    this.m = m;
+    this.efConstruction = efConstruction;
+    this.levelMultiplier = 1 / Math.log(m);
+    this.random = new Random(seed);
+  }
+
+  /**
+   * @return number of nodes
+   */
+  public int size() {
+    return size;
+  }
+
+  /** Pack a similarity and a node in a long, ordered by similarity and then by node. */
+  private static long key(final float similarity, final int node) {
+    final int bits = Float.floatToIntBits(similarity);
+    return (long) (bits ^ bits >> 31 & 0x7FFFFFFF) << 32 | node;
+  }
+
+  private static int node(final long key) {
+    return (int) key;
+  }
+
+  private static float similarity(final long key) {
+    final int sortable = (int) (key >> 32);
+    return Float.intBitsToFloat(sortable ^ sortable >> 31 & 0x7FFFFFFF);
+  }
+
+  private float dot(final float[] q, final int node) {
+    final float[] v = vectors[node];
+    float res = 0;
+    for (int i = 0; i < dim; i++) {
+      res += q[i] * v[i];
+    }
+    return res;
+  }
+
+  private int capacity(final int layer) {
+    return layer == 0 ? 2 * m : m;
+  }
+
+  /**
+   * Add a vector.
+   * @param id id returned by the searches
+   * @param vector unit vector, it is not copied
+   */
+  public void add(final int id, final float[] vector) {
+    if (vector.length != dim) {
+      throw new IllegalArgumentException("Expected dimension " + dim + ", found " + vector.length);
+    }
+    if (size == ids.length) {
+      ids = Arrays.copyOf(ids, size * 2);
+      vectors = Arrays.copyOf(vectors, size * 2);
+      neighbours = Arrays.copyOf(neighbours, size * 2);
+    }
+    final int node = size++;
+    final int layer = (int) (-Math.log(1 - random.nextDouble()) * levelMultiplier);
+    ids[node] = id;
+    vectors[node] = vector;
+    neighbours[node] = new int[layer + 1][];
+    for (int l = 0; l <= layer; l++) {
+      neighbours[node][l] = new int[capacity(l) + 1];
+    }
+    if (entry < 0) {
+      entry = node;
+      maxLayer = layer;
+      return;
+    }
+    int ep = entry;
+    for (int l = maxLayer; l > layer; l--) {
+      ep = greedy(vector, ep, l);
+    }
+    long[] found = {key(dot(vector, ep), ep)};
+    for (int l = Math.min(layer, maxLayer); l >= 0; l--) {
+      found = searchLayer(vector, found, efConstruction, l);
+      final int[] selected = select(vector, found, m);
+      for (final int n: selected) {
+        connect(node, n, l);
+        connect(n, node, l);
+      }
+    }
+    if (layer > maxLayer) {
+      entry = node;
+      maxLayer = layer;
+    }
+  }
+
+  /** Add `to` to the neighbours of `from`, shrinking them if they are too many. */
+  private void connect(final int from, final int to, final int layer) {
+    final int[] links = neighbours[from][layer];
+    if (links[0] < links.length - 1) {
+      links[++links[0]] = to;
+      return;
+    }
+    final long[] candidates = new long[links[0] + 1];
+    for (int i = 1; i <= links[0]; i++) {
+      candidates[i - 1] = key(dot(vectors[from], links[i]), links[i]);
+    }
+    candidates[links[0]] = key(dot(vectors[from], to), to);
+    Arrays.sort(candidates);
+    final int[] selected = select(vectors[from], candidates, links.length - 1);
+    links[0] = selected.length;
+    System.arraycopy(selected, 0, links, 1, selected.length);
+  }
+
+  /**
+   * Select the neighbours of a vector (heuristic of the paper): a candidate is kept if it is closer to the vector
+   * than to the kept candidates, then the discarded ones fill the remaining slots.
+   * @param vector vector
+   * @param candidates candidate keys, in increasing order
+   * @param max max neighbours
+   * @return selected nodes
+   */
+  private int[] select(final float[] vector, final long[] candidates, final int max) {
+    final int[] res = new int[Math.min(max, candidates.length)];
+    final boolean[] taken = new boolean[candidates.length];
+    int n = 0;
+    for (int i = candidates.length - 1; i >= 0 && n < res.length; i--) {
+      final int c = node(candidates[i]);
+      final float sim = similarity(candidates[i]);
+      boolean diverse = true;
+      for (int j = 0; j < n && diverse; j++) {
+        diverse = dot(vectors[c], res[j]) < sim;
+      }
+      if (diverse) {
+        res[n++] = c;
+        taken[i] = true;
+      }
+    }
+    for (int i = candidates.length - 1; i >= 0 && n < res.length; i--) {
+      if (!taken[i]) {
+        res[n++] = node(candidates[i]);
+      }
+    }
+    return res;
+  }
+
+  /** @return the neighbour of `ep` in `layer` closest to `q`, moving while it improves */
+  private int greedy(final float[] q, final int ep, final int layer) {
+    int best = ep;
+    float bestSim = dot(q, ep);
+    for (boolean changed = true; changed;) {
+      changed = false;
+      final int[] links = neighbours[best][layer];
+      for (int i = 1; i <= links[0]; i++) {
+        final float sim = dot(q, links[i]);
+        if (sim > bestSim) {
+          bestSim = sim;
+          best = links[i];
+          changed = true;
+        }
+      }
+    }
+    return best;
+  }
+
+  /**
+   * @param q query
+   * @param entryPoints keys of the entry points
+   * @param ef number of nodes to keep
+   * @param layer layer
+   * @return keys of the (approximately) `ef` nodes closest to `q`, in increasing order
+   */
+  private long[] searchLayer(final float[] q, final long[] entryPoints, final int ef, final int layer) {
+    final Visited visited = VISITED.get();
+    if (visited.marks.length < size) {
+      visited.marks = new int[Math.max(size, visited.marks.length * 2)];
+      visited.epoch = 0;
+    }
+    if (++visited.epoch == 0) { // wrapped around
+      Arrays.fill(visited.marks, 0);
+      visited.epoch = 1;
+    }
+    final LongHeap candidates = new LongHeap(); // best first (complemented keys)
+    final LongHeap results = new LongHeap(); // worst first
+    for (final long e: entryPoints) {
+      visited.marks[node(e)] = visited.epoch;
+      candidates.push(~e);
+      results.push(e);
+    }
+    while (results.size > ef) {
+      results.pop();
+    }
+    while (candidates.size > 0) {
+      final long c = ~candidates.pop();
+      if (results.size >= ef && c < results.peek()) {
+        break;
+      }
+      final int[] links = neighbours[node(c)][layer];
+      for (int i = 1; i <= links[0]; i++) {
+        final int n = links[i];
+        if (visited.marks[n] != visited.epoch) {
+          visited.marks[n] = visited.epoch;
+          final long k = key(dot(q, n), n);
+          if (results.size < ef || k > results.peek()) {
+            candidates.push(~k);
+            results.push(k);
+            if (results.size > ef) {
+              results.pop();
+            }
+          }
+        }
+      }
+    }
+    final long[] res = new long[results.size];
+    for (int i = 0; i < res.length; i++) {
+      res[i] = results.pop();
+    }
+    return res;
+  }
+
+  /**
+   * @param q unit vector
+   * @param k number of neighbours
+   * @param ef nodes kept by the search (at least `k`, the higher the more accurate)
+   * @return ids of the (approximately) `k` nearest vectors, from the nearest
+   */
+  public int[] search(final float[] q, final int k, final int ef) {
+    if (entry < 0 || k <= 0) {
+      return new int[0];
+    }
+    int ep = entry;
+    for (int l = maxLayer; l > 0; l--) {
+      ep = greedy(q, ep, l);
+    }
+    final long[] found = searchLayer(q, new long[] {key(dot(q, ep), ep)}, Math.max(ef, k), 0);
+    final int[] res = new int[Math.min(k, found.length)];
+    for (int i = 0; i < res.length; i++) {
+      res[i] = ids[node(found[found.length - 1 - i])];
+    }
+    return res;
+  }
+}
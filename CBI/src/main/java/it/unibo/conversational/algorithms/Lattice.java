@@ -0,0 +1,77 @@
+package it.unibo.conversational.algorithms;
+
+import java.util.List;
+
+import com.google.common.collect.ImmutableList;
+
+import it.unibo.conversational.datatypes.Mapping;
+import it.unibo.conversational.datatypes.Ngram;
+
+/**
+ * Lattice of the matched n-grams of a sentence: a DAG whose nodes are the n-grams (sorted by position, referred by their index)
+ * and whose edges link an n-gram to the ones beginning from 1 to maxDist tokens after its end.
+ * The mappings of {@link Mapper#createMappings(List, int, double, int)} are the paths of the lattice covering at least
+ * `threshold` tokens, so the lattice represents all of them in space linear in the number of n-grams.
+ */
+final class Lattice {
+  final Ngram[] ngrams;
+  final int[] length;
+  final double[] similarity;
+  /** Successors of the i-th n-gram are succFrom[i] ... succTo[i] - 1 (i.e., those beginning from 1 to maxDist tokens after its end). */
+  final int[] succFrom;
+  final int[] succTo;
+  final int totalLenght;
+  final double threshold;
+
+  /**
+   * Create the lattice.
+   * @param data list of ngrams, sorted by position
+   * @param totalLenght total length of the sentence
+   * @param threshold coverage threshold
+   * @param maxDist maximum distance between two ngrams
+   */
+  Lattice(final List<Ngram> data, final int totalLenght, final double threshold, final int maxDist) {
+    ngrams = data.toArray(new Ngram[0]);
+    length = new int[ngrams.length];
+    similarity = new double[ngrams.length];
+    succFrom = new int[ngrams.length];
+    succTo = new int[ngrams.length];
+    for (int i = 0; i < ngrams.length; i++) {
+      length[i] = ngrams[i].pos().getRight() - ngrams[i].pos().getLeft() + 1;
+      similarity[i] = ngrams[i].similarity();
+      succFrom[i] = firstBeginningFrom(ngrams[i].pos().getRight() + 1);
+      succTo[i] = Math.max(succFrom[i], firstBeginningFrom(ngrams[i].pos().getRight() + maxDist + 1));
+    }
+    this.totalLenght = totalLenght;
+    this.threshold = threshold;
+  }
+
+  /** @return index of the first n-gram beginning at `pos` or later (n-grams are sorted by position) */
+  private int firstBeginningFrom(final int pos) {
+    int lo = 0;
+    int hi = ngrams.length;
+    while (lo < hi) {
+      final int mid = lo + hi >>> 1;
+      if (ngrams[mid].pos().getLeft() < pos) {
+        lo = mid + 1;
+      } else {
+        hi = mid;
+      }
+    }
+    return lo;
+  }
+
+  /** @return the mapping of the chain chain[from] ... chain[to - 1], built without intermediate copies */
+  Mapping mapping(final int[] chain, final int from, final int to) {
+    final ImmutableList.Builder<Ngram> res = ImmutableList.builderWithExpectedSize(to - from);
+    for (int i = from; i < to; i++) {
+      res.add(ngrams[chain[i]]);
+    }
+    return new Mapping(res.build());
+  }
+
+  /** @return true if a chain ending with the i-th n-gram and covering `covered` tokens can still be extended */
+  boolean extensible(final int i, final int covered) {
+    return covered + totalLenght - ngrams[i].pos().getRight() >= threshold;
+  }
+}
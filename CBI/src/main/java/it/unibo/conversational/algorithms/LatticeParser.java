@@ -0,0 +1,135 @@
+package it.unibo.conversational.algorithms;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+import org.apache.commons.lang3.tuple.Pair;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import it.unibo.conversational.algorithms.Parser.Rule;
+import it.unibo.conversational.algorithms.Parser.Type;
+import it.unibo.conversational.datatypes.Mapping;
+import it.unibo.conversational.datatypes.Ngram;
+
+/**
+ * Parser of the paths of a {@link Lattice}, with the result of {@link Parser#parse(java.util.stream.Stream)} on the mappings of the lattice.
+ * The rules only match the types of the n-grams, so the rewriting of {@link Parser#parse(List, Mapping, Map)} (with its rule priority)
+ * runs once for each sequence of types: its translated sentences are kept with positions in place of the n-grams
+ * and are shared by all the paths with those types.
+ * A path is scored on the translated sentences of its types, and a translated sentence is built only if it can beat the best one;
+ * a path is not extended if even its best completion (the sum of the similarities, as in the top-k of the mappings) cannot reach the best score.
+ */
+final class LatticeParser {
+  /** A translated sentence of a sequence of types, whose leaves are the positions of the n-grams in the path. */
+  private static final class Translation {
+    private final Mapping sentence;
+    /** Positions of the leaves of the parsing tree, whose similarities are the score of the sentence (see {@link Mapping#getScore()}). */
+    private final int[] scored;
+
+    private Translation(final Mapping sentence) {
+      this.sentence = sentence;
+      // the parsing tree as in the constructor of Mapping
+      final Ngram tree = sentence.ngrams.stream().max((n1, n2) -> Integer.compare(n1.countNode(), n2.countNode())).get();
+      this.scored = Ngram.leaves(tree).stream().mapToInt(n -> Integer.parseInt(n.tokens)).toArray();
+    }
+  }
+
+  private final List<Rule[]> rules;
+  private final Lattice lattice;
+  /** best[i]: highest sum of similarities of a path beginning with the i-th n-gram. */
+  private final double[] best;
+  /** Translated sentences (containing a query) of the sequences of types, in the order of the rewriting. */
+  private final Map<List<Type>, List<Translation>> translations = Maps.newHashMap();
+  private final Map<String, Object> stats;
+  private Mapping res;
+  private double score = Double.NEGATIVE_INFINITY;
+
+  private LatticeParser(final List<Rule[]> rules, final Lattice lattice, final Map<String, Object> stats) {
+    this.rules = rules;
+    this.lattice = lattice;
+    this.stats = stats;
+    best = new double[lattice.ngrams.length];
+    for (int i = best.length - 1; i >= 0; i--) {
+      double next = 0;
+      for (int j = lattice.succFrom[i]; j < lattice.succTo[i]; j++) {
+        next = Math.max(next, best[j]);
+      }
+      best[i] = lattice.similarity[i] + next;
+    }
+  }
+
+  /**
+   * Parse the paths of a lattice.
+   * @param rules rules to apply, group by group as in {@link Parser#parse(List, Mapping, Map)}
+   * @param lattice lattice of the n-grams
+   * @param stats statistics of the parsing (see {@link Parser#parse(List, Mapping, Map)}), `parse_types` is increased by the parsed sequences of types
+   * @return the best parsing interpretation, if any
+   */
+  static Optional<Mapping> parse(final List<Rule[]> rules, final Lattice lattice, final Map<String, Object> stats) {
+    final LatticeParser parser = new LatticeParser(rules, lattice, stats);
+    final int[] chain = new int[lattice.totalLenght + 1];
+    final Type[] types = new Type[lattice.totalLenght + 1];
+    for (int i = 0; i < lattice.ngrams.length; i++) {
+      if (parser.best[i] >= parser.score - 1e-9) {
+        chain[0] = i;
+        types[0] = lattice.ngrams[i].type;
+        parser.parse(chain, types, 1, lattice.length[i], lattice.similarity[i]);
+      }
+    }
+    stats.merge("parse_types", (long) parser.translations.size(), (a, b) -> (Long) a + (Long) b);
+    return Optional.ofNullable(parser.res);
+  }
+
+  /** Parse the paths beginning with chain[0] ... chain[size - 1], in the order of {@link Mapper#streamMappings(List, int, double, int)}. */
+  private void parse(final int[] chain, final Type[] types, final int size, final int covered, final double sum) {
+    final int last = chain[size - 1];
+    if (covered >= lattice.threshold) {
+      for (final Translation t : translations.computeIfAbsent(ImmutableList.copyOf(Arrays.copyOf(types, size)), this::translate)) {
+        double s = 0;
+        for (final int p : t.scored) {
+          s += lattice.similarity[chain[p]];
+        }
+        if (s >= score - 1e-9) { // otherwise it cannot beat the best one (the score of a mapping is summed in another order)
+          final Mapping m = new Mapping(t.sentence.ngrams.stream().map(n -> instantiate(n, chain)).collect(Collectors.toList()));
+          if (res == null || Mapping.compareMappings(m, res) > 0) { // on ties, the first one as in Parser.parse(Stream)
+            res = m;
+            score = m.getScore();
+          }
+        }
+      }
+    }
+    if (lattice.extensible(last, covered)) {
+      for (int j = lattice.succFrom[last]; j < lattice.succTo[last]; j++) {
+        if (sum + best[j] >= score - 1e-9) { // the score of a translated sentence is at most the sum of the similarities
+          chain[size] = j;
+          types[size] = lattice.ngrams[j].type;
+          parse(chain, types, size + 1, covered + lattice.length[j], sum + lattice.similarity[j]);
+        }
+      }
+    }
+  }
+
+  /** @return the translated sentences of a sequence of types containing a query, the leaf at position p stands for the p-th n-gram of the path */
+  private List<Translation> translate(final List<Type> types) {
+    final List<Ngram> sentence = Lists.newArrayListWithCapacity(types.size());
+    for (int p = 0; p < types.size(); p++) {
+      sentence.add(new Ngram(Integer.toString(p), types.get(p), null, 0.0, null, Pair.of(p, p)));
+    }
+    return Parser.parse(rules, new Mapping(sentence), stats).stream() //
+        .filter(s -> s.ngrams.stream().anyMatch(n -> n.type.equals(Type.Q))) //
+        .map(Translation::new) //
+        .collect(Collectors.toList());
+  }
+
+  /** @return the parsing tree with the n-grams of the path in place of the positions */
+  private Ngram instantiate(final Ngram ngram, final int[] chain) {
+    return ngram.children.isEmpty() ? lattice.ngrams[chain[Integer.parseInt(ngram.tokens)]]
+        : new Ngram(ngram.type, ngram.children.stream().map(c -> instantiate(c, chain)).collect(Collectors.toList()));
+  }
+}
@@ -0,0 +1,165 @@
+package it.unibo.conversational.algorithms;
+
+/**
+ * Levenshtein distance with an optional maximum.
+ * Words up to 64 characters use the bit-parallel algorithm by Myers (in the formulation by Hyyrö):
+ * a column of the dynamic programming matrix is encoded by its vertical deltas in two words,
+ * so each character of the other word costs a constant number of bitwise operations.
+ * Longer words use the dynamic programming restricted to the diagonals within the maximum distance (Ukkonen's band).
+ * Both stop as soon as the distance is known to exceed the maximum.
+ */
+public final class Levenshtein {
+  private Levenshtein() {
+  }
+
+  /** Max length of the pattern for the bit-parallel algorithm. */
+  private static final int WORD = 64;
+
+  /** Match masks of the pattern characters, reused by each thread. */
+  private static final class Peq {
+    /** Masks of the characters below 256. */
+    private final long[] latin = new long[256];
+    /** Other characters of the pattern and their masks. */
+    private final char[] chars = new char[WORD];
+    private final long[] masks = new long[WORD];
+    private int size;
+
+    private void init(final String pattern) {
+      for (int i = 0; i < pattern.length(); i++) {
+        final char c = pattern.charAt(i);
+        if (c < 256) {
+          latin[c] |= 1L << i;
+        } else {
+          int k = 0;
+          while (k < size && chars[k] != c) {
+            k++;
+          }
+          if (k == size) {
+            chars[size] = c;
+            masks[size++] = 0;
+          }
+          masks[k] |= 1L << i;
+        }
+      }
+    }
+
+    private long get(final char c) {
+      if (c < 256) {
+        return latin[c];
+      }
+      for (int k = 0; k < size; k++) {
+        if (chars[k] == c) {
+          return masks[k];
+        }
+      }
+      return 0;
+    }
+
+    private void clear(final String pattern) {
+      for (int i = 0; i < pattern.length(); i++) {
+        if (pattern.charAt(i) < 256) {
+          latin[pattern.charAt(i)] = 0;
+        }
+      }
+      size = 0;
+    }
+  }
+
+  private static final ThreadLocal<Peq> PEQ = ThreadLocal.withInitial(Peq::new);
+
+  /**
+   * @param first a word
+   * @param second another word
+   * @return the distance between the words
+   */
+  public static int distance(final String first, final String second) {
+    return distance(first, second, Integer.MAX_VALUE);
+  }
+
+  /**
+   * @param first a word
+   * @param second another word
+   * @param max max distance of interest
+   * @return the distance if it is at most `max`, otherwise a lower bound of the distance greater than `max`
+   */
+  public static int distance(final String first, final String second, final int max) {
+    final String pattern = first.length() <= second.length() ? first : second;
+    final String text = pattern == first ? second : first;
+    final int diff = text.length() - pattern.length();
+    if (diff > max) {
+      return diff;
+    }
+    if (pattern.isEmpty()) {
+      return text.length();
+    }
+    return pattern.length() <= WORD ? bitParallel(pattern, text, max) : banded(pattern, text, max);
+  }
+
+  private static int bitParallel(final String pattern, final String text, final int max) {
+    final Peq peq = PEQ.get();
+    peq.init(pattern);
+    try {
+      final long last = 1L << pattern.length() - 1;
+      long pv = -1L; // vertical deltas of the first column are all +1
+      long mv = 0L;
+      int score = pattern.length();
+      for (int j = 0; j < text.length(); j++) {
+        final long eq = peq.get(text.charAt(j));
+        final long xv = eq | mv;
+        final long xh = ((eq & pv) + pv ^ pv) | eq;
+        long ph = mv | ~(xh | pv);
+        long mh = pv & xh;
+        if ((ph & last) != 0) {
+          score++;
+        } else if ((mh & last) != 0) {
+          score--;
+        }
+        // each remaining column lowers the score by at most one
+        if (score - (text.length() - j - 1) > max) {
+          return score - (text.length() - j - 1);
+        }
+        ph = ph << 1 | 1L; // the first row grows by one at each column
+        mh <<= 1;
+        pv = mh | ~(xv | ph);
+        mv = ph & xv;
+      }
+      return score;
+    } finally {
+      peq.clear(pattern);
+    }
+  }
+
+  private static int banded(final String pattern, final String text, final int max) {
+    // the cells out of the band are above max, they are capped to max + 1
+    final int band = (int) Math.min(max, (long) text.length());
+    final int cap = band + 1;
+    int[] prev = new int[text.length() + 1];
+    int[] cur = new int[text.length() + 1];
+    for (int j = 0; j <= text.length(); j++) {
+      prev[j] = Math.min(j, cap);
+    }
+    for (int i = 1; i <= pattern.length(); i++) {
+      final int from = Math.max(1, i - band);
+      final int to = Math.min(text.length(), i + band);
+      cur[from - 1] = cap;
+      cur[0] = Math.min(i, cap);
+      int rowMin = from == 1 ? cur[0] : cap;
+      final char c = pattern.charAt(i - 1);
+      for (int j = from; j <= to; j++) {
+        final int subst = prev[j - 1] + (c == text.charAt(j - 1) ? 0 : 1);
+        cur[j] = Math.min(cap, Math.min(subst, Math.min(prev[j], cur[j - 1]) + 1));
+        rowMin = Math.min(rowMin, cur[j]);
+      }
+      if (to < text.length()) {
+        cur[to + 1] = cap;
+      }
+      if (rowMin > max) {
+        return rowMin;
+      }
+      final int[] t = prev;
+      prev = cur;
+      cur = t;
+    }
+    return prev[text.length()];
+  }
+}
@@ -0,0 +1,125 @@
+package it.unibo.conversational.algorithms;
+
+import java.util.Arrays;
+
+/**
+ * Trie of words visited by a Levenshtein automaton (i.e., one row of the edit distance matrix for each trie node).
+ * The visit only descends the branches that can still reach the similarity threshold used by {@link it.unibo.conversational.Utils#tokenSimilarity(String, String)}.
+ * Characters are compared in lower case, as done by the similarity function.
+ */
+public final class LevenshteinTrie {
+  /** Slack for the pruning bound, the returned words must be verified by the caller. */
+  private static final double EPS = 1e-9;
+  private final Node root = new Node();
+  private int size;
+
+  /** Consumer of the words reached by the visit. */
+  @FunctionalInterface
+  public interface Visitor {
+    /**
+     * @param id identifier of the word
+     * @param distance edit distance between the word and the searched one
+     */
+    void accept(int id, int distance);
+  }
+
+  /** A node of the trie. */
+  private static final class Node {
+    private char[] labels = new char[0];
+    private Node[] children = new Node[0];
+    /** Identifiers of the words ending in this node. */
+    private int[] ids = new int[0];
+    /** Original (i.e., not lower case) length of the words ending in this node. */
+    private int[] lengths = new int[0];
+    /** Maximum original length of the words in the subtree. */
+    private int maxLength;
+
+    private Node child(final char c, final boolean create) {
+      int idx = Arrays.binarySearch(labels, c);
+      if (idx < 0) {
+        if (!create) {
+          return null;
+        }
+        idx = -idx - 1;
+        final char[] newLabels = new char[labels.length + 1];
+        final Node[] newChildren = new Node[children.length + 1];
+        System.arraycopy(labels, 0, newLabels, 0, idx);
+        System.arraycopy(children, 0, newChildren, 0, idx);
+        newLabels[idx] = c;
+        newChildren[idx] = new Node();
+        System.arraycopy(labels, idx, newLabels, idx + 1, labels.length - idx);
+        System.arraycopy(children, idx, newChildren, idx + 1, children.length - idx);
+        labels = newLabels;
+        children = newChildren;
+      }
+      return children[idx];
+    }
+  }
+
+  /**
+   * Add a word to the trie.
+   * @param word word
+   * @param id identifier returned by the visit
+   */
+  public void add(final String word, final int id) {
+    final String lower = word.toLowerCase();
+    Node n = root;
+    n.maxLength = Math.max(n.maxLength, word.length());
+    for (int i = 0; i < lower.length(); i++) {
+      n = n.child(lower.charAt(i), true);
+      n.maxLength = Math.max(n.maxLength, word.length());
+    }
+    n.ids = Arrays.copyOf(n.ids, n.ids.length + 1);
+    n.lengths = Arrays.copyOf(n.lengths, n.lengths.length + 1);
+    n.ids[n.ids.length - 1] = id;
+    n.lengths[n.lengths.length - 1] = word.length();
+    size++;
+  }
+
+  /**
+   * @return number of words in the trie
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Visit the words whose similarity with the given one can be above the threshold.
+   * @param word searched word
+   * @param threshold minimum similarity
+   * @param visitor consumer of the reached words
+   */
+  public void search(final String word, final double threshold, final Visitor visitor) {
+    final String lower = word.toLowerCase();
+    final int[] row = new int[lower.length() + 1];
+    for (int i = 0; i < row.length; i++) {
+      row[i] = i;
+    }
+    search(root, lower, word.length(), row, threshold, visitor);
+  }
+
+  private static void search(final Node node, final String word, final int length, final int[] row, final double threshold, final Visitor visitor) {
+    final int distance = row[row.length - 1];
+    for (int i = 0; i < node.ids.length; i++) {
+      if (1 - (double) distance / Math.max(length, node.lengths[i]) >= threshold - EPS) {
+        visitor.accept(node.ids[i], distance);
+      }
+    }
+    for (int c = 0; c < node.labels.length; c++) {
+      final Node child = node.children[c];
+      final char label = node.labels[c];
+      final int[] next = new int[row.length];
+      next[0] = row[0] + 1;
+      int min = next[0];
+      for (int i = 1; i < row.length; i++) {
+        final int cost = word.charAt(i - 1) == label ? 0 : 1;
+        next[i] = Math.min(Math.min(next[i - 1] + 1, row[i] + 1), row[i - 1] + cost);
+        min = Math.min(min, next[i]);
+      }
+      // any word in the subtree is at least `min` edits away and is not longer than `child.maxLength`
+      if (1 - (double) min / Math.max(length, child.maxLength) >= threshold - EPS) {
+        search(child, word, length, next, threshold, visitor);
+      }
+    }
+  }
+}
@@ -0,0 +1,133 @@
+package it.unibo.conversational.algorithms;
+
+import it.unibo.conversational.Utils.DataType;
+
+/**
+ * Recognize the literals in the tokens of a sentence: integers, decimals (with either `,` or `.` as separator),
+ * years and ISO-like dates (`yyyy-mm-dd` or `yyyy/mm/dd`).
+ * Tokens are scanned once, character by character, and nothing is allocated or thrown for tokens that are not literals.
+ */
+public final class Literals {
+  private Literals() {
+  }
+
+  /** Lowest year (boundaries are compliant with the year type in MySQL). */
+  public static final int MIN_YEAR = 1900;
+  /** Highest year. */
+  public static final int MAX_YEAR = 2155;
+
+  /** Kind of a literal. */
+  public enum Kind {
+    /** An integer, e.g. `-12`. */
+    INTEGER(DataType.NUMERIC),
+    /** A decimal, e.g. `3.5` or `3,5`. */
+    DECIMAL(DataType.NUMERIC),
+    /** A four-digit integer between {@link Literals#MIN_YEAR} and {@link Literals#MAX_YEAR}. */
+    YEAR(DataType.NUMERIC),
+    /** A date, e.g. `2019-01-31`. */
+    DATE(DataType.DATE);
+
+    private final DataType dataType;
+
+    Kind(final DataType dataType) {
+      this.dataType = dataType;
+    }
+
+    /**
+     * @return type of the literal in the database
+     */
+    public DataType dataType() {
+      return dataType;
+    }
+  }
+
+  /**
+   * @param token a token
+   * @return the kind of literal, or null if the token is not a literal
+   */
+  public static Kind recognize(final CharSequence token) {
+    final int length = token.length();
+    if (length == 0) {
+      return null;
+    }
+    int i = token.charAt(0) == '+' || token.charAt(0) == '-' ? 1 : 0;
+    final int start = i;
+    int value = 0;
+    while (i < length && isDigit(token.charAt(i))) {
+      if (value <= MAX_YEAR) {
+        value = value * 10 + token.charAt(i) - '0';
+      }
+      i++;
+    }
+    final int digits = i - start;
+    if (i == length) {
+      if (digits == 0) {
+        return null;
+      }
+      return start == 0 && digits == 4 && value >= MIN_YEAR && value <= MAX_YEAR ? Kind.YEAR : Kind.INTEGER;
+    }
+    final char c = token.charAt(i);
+    if (c == '.' || c == ',') {
+      int decimals = 0;
+      for (i++; i < length && isDigit(token.charAt(i)); i++) {
+        decimals++;
+      }
+      return i == length && digits + decimals > 0 ? Kind.DECIMAL : null;
+    }
+    if ((c == '-' || c == '/') && start == 0 && digits == 4) {
+      return isDate(token, value, i, c) ? Kind.DATE : null;
+    }
+    return null;
+  }
+
+  /**
+   * @param token a token
+   * @return true if the token is a year
+   */
+  public static boolean isYear(final CharSequence token) {
+    return recognize(token) == Kind.YEAR;
+  }
+
+  /**
+   * Check the month and the day of a date.
+   * @param token the token
+   * @param year year, already scanned
+   * @param from position of the separator after the year
+   * @param separator separator
+   * @return true if the token is a valid date
+   */
+  private static boolean isDate(final CharSequence token, final int year, final int from, final char separator) {
+    int i = from + 1;
+    int month = 0;
+    for (int n = 0; n < 2 && i < token.length() && isDigit(token.charAt(i)); n++, i++) {
+      month = month * 10 + token.charAt(i) - '0';
+    }
+    if (i == from + 1 || i == token.length() || token.charAt(i) != separator) {
+      return false;
+    }
+    final int dayFrom = ++i;
+    int day = 0;
+    for (int n = 0; n < 2 && i < token.length() && isDigit(token.charAt(i)); n++, i++) {
+      day = day * 10 + token.charAt(i) - '0';
+    }
+    return i > dayFrom && i == token.length() && month >= 1 && month <= 12 && day >= 1 && day <= daysOf(year, month);
+  }
+
+  private static int daysOf(final int year, final int month) {
+    switch (month) {
+    case 2:
+      return year % 4 == 0 && (year % 100 != 0 || year % 400 == 0) ? 29 : 28;
+    case 4:
+    case 6:
+    case 9:
+    case 11:
+      return 30;
+    default:
+      return 31;
+    }
+  }
+
+  private static boolean isDigit(final char c) {
+    return c >= '0' && c <= '9';
+  }
+}
@@ -1,24 +1,31 @@
 package it.unibo.conversational.algorithms;
 
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
-import java.sql.JDBCType;
-import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
-import java.util.stream.Collectors;
-import java.util.stream.IntStream;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RecursiveTask;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import org.apache.commons.lang3.tuple.Pair;
 import org.apache.commons.lang3.tuple.Triple;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
-import com.google.common.collect.Maps;
-import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 import edu.stanford.nlp.util.StringUtils;
 import it.unibo.conversational.Utils;
@@ -37,36 +44,78 @@ public final class Mapper {
   }
 
   private static final Logger L = LoggerFactory.getLogger(Mapper.class);
+  /** Executor of the dictionary lookups, null if they run on the request thread. */
+  private static volatile ExecutorService lookupExecutor;
 
   /**
-   * Read the list of stopwords from file.
-   * @return the list of stopwords
-   * @throws Exception in case of error
+   * Set the number of threads that look up the n-grams of a sentence in the dictionary.
+   * The results do not depend on the number of threads.
+   * The new executor is published before the previous one is shut down: requests in progress keep the executor they started with,
+   * their submitted lookups complete on it and the ones submitted after the shutdown run on the request thread (see {@link #submit(ExecutorService, Callable)}).
+   * @param threads number of threads, if lower than 2 the lookups run on the request thread (default)
    */
-  private static Set<String> readStopWord() throws Exception {
-    final Set<String> stopWord = Sets.newLinkedHashSet();
-    final BufferedReader br = new BufferedReader(new InputStreamReader(new Mapper().getClass().getClassLoader().getResourceAsStream("stopwords.txt")));
-    String st;
-    while ((st = br.readLine()) != null) {
-      stopWord.add(st);
+  public static synchronized void setLookupThreads(final int threads) {
+    final ExecutorService old = lookupExecutor;
+    lookupExecutor = threads < 2 ? null : Executors.newFixedThreadPool(threads, new ThreadFactoryBuilder().setNameFormat("mapper-lookup-%d").setDaemon(true).build());
+    if (old != null) {
+      old.shutdown();
     }
-    return stopWord;
+  }
+
+  /**
+   * Submit a lookup to the executor captured by a request.
+   * @param executor executor of the request, null to run the lookup on the request thread
+   * @param lookup lookup
+   * @return the result of the lookup
+   * @throws Exception if the lookup runs on the request thread and fails
+   */
+  private static <T> Future<T> submit(final ExecutorService executor, final Callable<T> lookup) throws Exception {
+    if (executor != null) {
+      try {
+        return executor.submit(lookup);
+      } catch (final RejectedExecutionException e) {
+        // the executor has been replaced (and shut down) by setLookupThreads while the request was in progress
+      }
+    }
+    return Futures.immediateFuture(lookup.call());
+  }
+
+  /** Pool of the parallel enumeration of the mappings, null if they are enumerated on the request thread. */
+  private static volatile ForkJoinPool enumerationPool;
+
+  /**
+   * Set the number of threads that enumerate the mappings of a sentence (see {@link #createMappings(List, int, double, int, ForkJoinPool)}).
+   * The mappings, and their order, do not depend on the number of threads.
+   * @param threads number of threads, if lower than 2 the mappings are enumerated on the request thread (default)
+   */
+  public static synchronized void setEnumerationThreads(final int threads) {
+    final ForkJoinPool old = enumerationPool;
+    enumerationPool = threads < 2 ? null : new ForkJoinPool(threads);
+    if (old != null) {
+      old.shutdown();
+    }
+  }
+
+  /** Number of mappings returned for a sentence, all of them if not positive. */
+  private static volatile int maxMappings = 0;
+
+  /**
+   * Set the number of mappings returned for a sentence (see {@link #createMappings(List, int, double, int, int)}).
+   * @param k number of mappings, all of them if not positive (default)
+   */
+  public static void setMaxMappings(final int k) {
+    maxMappings = k;
   }
 
   /**
    * Return a clean set of tokens.
    * @param nl natural language sentence
+   * @param skipCleaning whether stopwords are kept
    * @return a clean set of tokens
    * @throws Exception in case of error
    */
   public static List<String> cleanSentence(final String nl, final boolean skipCleaning) throws Exception {
-    final Set<String> stopWord = readStopWord();
-    final List<String> tokens = 
-        Arrays.asList(nl.replace("_", " ").split(" ")).stream()
-          .filter(t -> !t.isEmpty())
-          .filter(t -> skipCleaning || !stopWord.contains(t))
-          .collect(Collectors.toList());
-    return tokens;
+    return Tokenizer.tokenize(nl, skipCleaning).toList();
   }
 
   private static Type getNgramType(final Entity m) {
@@ -163,26 +212,362 @@ public final class Mapper {
   }
 
   private static List<Mapping> createMappings(final List<Ngram> acc, final int coveredTokens, final List<Ngram> data, final int totalLenght, final double threshold, final int maxDist, final List<Mapping> res) {
-    final List<Ngram> newData = new ArrayList<>(data);
-    for (final Ngram r : data) {
-      final int diff = r.pos().getLeft() - (acc.isEmpty() ? 0 : acc.get(acc.size() - 1).pos().getRight()); // distance between begin and end of the two consecutive ngrams
+    // the chains share a single stack of ngrams and the remaining data is a mask over the original one,
+    // so a step of the search copies nothing (only the emitted mappings are materialized)
+    final Ngram[] chain = acc.toArray(new Ngram[acc.size() + data.size()]);
+    createMappings(chain, acc.size(), coveredTokens, data.toArray(new Ngram[0]), new int[data.size()], data.size(), totalLenght, threshold, maxDist, res);
+    return res;
+  }
+
+  /**
+   * @param chain the current chain is chain[0] ... chain[size - 1]
+   * @param size size of the chain
+   * @param coveredTokens sentence coverage so far
+   * @param data all the ngrams
+   * @param removedBy removedBy[i] is the size of the chain (plus one) that removed data[i] from the remaining ngrams, 0 if data[i] is remaining
+   * @param remaining number of remaining ngrams
+   */
+  private static void createMappings(final Ngram[] chain, final int size, final int coveredTokens, final Ngram[] data, final int[] removedBy, final int remaining, final int totalLenght, final double threshold, final int maxDist, final List<Mapping> res) {
+    int newRemaining = remaining;
+    int first = data.length; // first ngram removed by this step
+    for (int i = 0; i < data.length; i++) {
+      if (removedBy[i] > 0) { // the following ngrams are untouched (the recursive calls restore them)
+        continue;
+      }
+      final Ngram r = data[i];
+      final int diff = r.pos().getLeft() - (size == 0 ? 0 : chain[size - 1].pos().getRight()); // distance between begin and end of the two consecutive ngrams
       final int newCoveredTokens = coveredTokens + r.pos().getRight() - r.pos().getLeft() + 1; // if the words begins in 0 end ends in 1, the length is 2
       // If the two ngrams are closer than maxDist and the amount of covered sentence is above threshold
-      if (acc.isEmpty() || diff >= 1 && diff <= maxDist) {
-        final List<Ngram> newInt = new ArrayList<>(acc);
-        newInt.add(r);
-        newData.remove(r);
+      if (size == 0 || diff >= 1 && diff <= maxDist) {
+        chain[size] = r;
+        removedBy[i] = size + 1;
+        first = Math.min(first, i);
+        newRemaining--;
         if (newCoveredTokens >= threshold) {
-          res.add(new Mapping(newInt));
+          res.add(new Mapping(ImmutableList.copyOf(Arrays.asList(chain).subList(0, size + 1))));
+        }
+        if (newRemaining > 0 && newCoveredTokens + totalLenght - r.pos().getRight() >= threshold) {
+          createMappings(chain, size + 1, newCoveredTokens, data, removedBy, newRemaining, totalLenght, threshold, maxDist, res);
+        }
+      }
+    }
+    for (int i = first; i < data.length; i++) { // give the ngrams back to the caller
+      if (removedBy[i] == size + 1) {
+        removedBy[i] = 0;
+      }
+    }
+  }
+
+  /**
+   * Get the best interpretations out of a list of ngrams, i.e., the `k` mappings of {@link #createMappings(List, int, double, int)}
+   * with the highest sum of similarities (ties are broken by the order of {@link #createMappings(List, int, double, int)}).
+   * The mappings are enumerated in the same order, but a chain of n-grams is not extended if even its best
+   * completion (computed by dynamic programming from the end of the sentence) cannot enter the current top-k.
+   * @param data list of ngrams, sorted by position
+   * @param totalLenght total length of the sentence
+   * @param threshold coverage threshold
+   * @param maxDist maximum distance between two ngrams
+   * @param k number of mappings
+   * @return the best interpretations, from the best
+   */
+  public static List<Mapping> createMappings(final List<Ngram> data, final int totalLenght, final double threshold, final int maxDist, final int k) {
+    final Lattice lattice = new Lattice(data, totalLenght, threshold, maxDist);
+    // best[i]: highest sum of similarities of a chain beginning with the i-th n-gram
+    final double[] best = new double[lattice.ngrams.length];
+    for (int i = best.length - 1; i >= 0; i--) {
+      double next = 0;
+      for (int j = lattice.succFrom[i]; j < lattice.succTo[i]; j++) {
+        next = Math.max(next, best[j]);
+      }
+      best[i] = lattice.similarity[i] + next;
+    }
+    final TopK<Mapping> res = new TopK<>(k);
+    final int[] chain = new int[totalLenght + 1];
+    for (int i = 0; i < best.length; i++) {
+      if (best[i] >= res.bar() - 1e-9) {
+        chain[0] = i;
+        createMappings(lattice, best, chain, 1, lattice.length[i], lattice.similarity[i], res);
+      }
+    }
+    return res.toList();
+  }
+
+  private static void createMappings(final Lattice lattice, final double[] best, final int[] chain, final int size, final int covered, final double score, final TopK<Mapping> res) {
+    final int last = chain[size - 1];
+    if (covered >= lattice.threshold && (!res.isFull() || score > res.bar())) {
+      res.offer(lattice.mapping(chain, 0, size), score);
+    }
+    if (lattice.extensible(last, covered)) {
+      for (int j = lattice.succFrom[last]; j < lattice.succTo[last]; j++) {
+        if (score + best[j] >= res.bar() - 1e-9) { // otherwise no completion can enter the top-k
+          chain[size] = j;
+          createMappings(lattice, best, chain, size + 1, covered + lattice.length[j], score + lattice.similarity[j], res);
         }
-        if (!newData.isEmpty() && newCoveredTokens + totalLenght - r.pos().getRight() >= threshold) {
-          createMappings(newInt, newCoveredTokens, newData, totalLenght, threshold, maxDist, res);
+      }
+    }
+  }
+
+  /**
+   * Get all the possibile interpretations out of a list of ngrams, lazily.
+   * Interpretations are generated in the order of {@link #createMappings(List, int, double, int)} while the stream is consumed,
+   * keeping only the current chain of n-grams (i.e., memory is bounded by the sentence length, not by the number of interpretations).
+   * @param data list of ngrams, sorted by position
+   * @param totalLenght total length of the sentence
+   * @param threshold coverage threshold
+   * @param maxDist maximum distance between two ngrams
+   * @return ordered stream of interpretations
+   */
+  public static Stream<Mapping> streamMappings(final List<Ngram> data, final int totalLenght, final double threshold, final int maxDist) {
+    final Lattice lattice = new Lattice(data, totalLenght, threshold, maxDist);
+    return StreamSupport.stream(Spliterators.spliteratorUnknownSize(new MappingIterator(lattice), Spliterator.ORDERED | Spliterator.NONNULL), false);
+  }
+
+  /** Depth-first visit of the chains of n-grams, with an explicit stack. */
+  private static final class MappingIterator implements Iterator<Mapping> {
+    private final Lattice lattice;
+    /** Frame i: the i-th n-gram of the chain, covered tokens, next and last (excluded) successor to visit. Frame 0 is the empty chain. */
+    private final int[] ngram;
+    private final int[] covered;
+    private final int[] next;
+    private final int[] end;
+    private int depth;
+    private Mapping mapping;
+
+    private MappingIterator(final Lattice lattice) {
+      this.lattice = lattice;
+      final int maxDepth = lattice.totalLenght + 2;
+      ngram = new int[maxDepth];
+      covered = new int[maxDepth];
+      next = new int[maxDepth];
+      end = new int[maxDepth];
+      end[0] = lattice.ngrams.length; // any n-gram can begin a chain
+    }
+
+    @Override
+    public boolean hasNext() {
+      while (mapping == null && depth >= 0) {
+        if (next[depth] < end[depth]) { // move to the next successor
+          final int j = next[depth]++;
+          final int c = covered[depth] + lattice.length[j];
+          depth++;
+          ngram[depth] = j;
+          covered[depth] = c;
+          next[depth] = lattice.extensible(j, c) ? lattice.succFrom[j] : 0;
+          end[depth] = lattice.extensible(j, c) ? lattice.succTo[j] : 0;
+          if (c >= lattice.threshold) {
+            mapping = lattice.mapping(ngram, 1, depth + 1);
+          }
+        } else { // backtrack
+          depth--;
+        }
+      }
+      return mapping != null;
+    }
+
+    @Override
+    public Mapping next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      final Mapping res = mapping;
+      mapping = null;
+      return res;
+    }
+  }
+
+  /** Depth of the search tree up to which the parallel enumeration forks a task per chain. */
+  private static final int SPLIT_DEPTH = 2;
+
+  /**
+   * Get all the possibile interpretations out of a list of ngrams, in parallel.
+   * The first levels of the search tree are split into tasks (one per chain of up to {@value #SPLIT_DEPTH} ngrams),
+   * each task enumerates its subtree in its own buffer and the buffers are concatenated in the order of the chains,
+   * so the result is the one of {@link #createMappings(List, int, double, int)}.
+   * @param data list of ngrams, sorted by position
+   * @param totalLenght total length of the sentence
+   * @param threshold coverage threshold
+   * @param maxDist maximum distance between two ngrams
+   * @param pool pool running the tasks
+   * @return interpretations
+   */
+  public static List<Mapping> createMappings(final List<Ngram> data, final int totalLenght, final double threshold, final int maxDist, final ForkJoinPool pool) {
+    final Lattice lattice = new Lattice(data, totalLenght, threshold, maxDist);
+    return pool.invoke(new EnumerationTask(lattice, new int[0], 0));
+  }
+
+  /** Enumeration of the chains beginning with a given one (the empty chain is the root of the search tree). */
+  private static final class EnumerationTask extends RecursiveTask<List<Mapping>> {
+    private static final long serialVersionUID = 1L;
+    private final transient Lattice lattice;
+    private final int[] chain;
+    private final int covered;
+
+    private EnumerationTask(final Lattice lattice, final int[] chain, final int covered) {
+      this.lattice = lattice;
+      this.chain = chain;
+      this.covered = covered;
+    }
+
+    @Override
+    protected List<Mapping> compute() {
+      final List<Mapping> res = Lists.newArrayList();
+      if (chain.length >= SPLIT_DEPTH) {
+        final int[] stack = Arrays.copyOf(chain, lattice.totalLenght + 1);
+        enumerate(lattice, stack, chain.length, covered, res);
+        return res;
+      }
+      if (chain.length > 0 && covered >= lattice.threshold) {
+        res.add(lattice.mapping(chain, 0, chain.length));
+      }
+      final int last = chain.length == 0 ? -1 : chain[chain.length - 1];
+      if (last < 0 || lattice.extensible(last, covered)) {
+        final List<EnumerationTask> tasks = Lists.newArrayList();
+        for (int j = last < 0 ? 0 : lattice.succFrom[last]; j < (last < 0 ? lattice.ngrams.length : lattice.succTo[last]); j++) {
+          final int[] next = Arrays.copyOf(chain, chain.length + 1);
+          next[chain.length] = j;
+          tasks.add(new EnumerationTask(lattice, next, covered + lattice.length[j]));
+        }
+        for (final EnumerationTask t : invokeAll(tasks)) {
+          res.addAll(t.join());
+        }
+      }
+      return res;
+    }
+  }
+
+  /** Depth-first enumeration of the chains beginning with chain[0] ... chain[size - 1], in the order of {@link MappingIterator}. */
+  private static void enumerate(final Lattice lattice, final int[] chain, final int size, final int covered, final List<Mapping> res) {
+    final int last = chain[size - 1];
+    if (covered >= lattice.threshold) {
+      res.add(lattice.mapping(chain, 0, size));
+    }
+    if (lattice.extensible(last, covered)) {
+      for (int j = lattice.succFrom[last]; j < lattice.succTo[last]; j++) {
+        chain[size] = j;
+        enumerate(lattice, chain, size + 1, covered + lattice.length[j], res);
+      }
+    }
+  }
+
+  /**
+   * Count the interpretations out of a list of ngrams without creating them,
+   * i.e., the size of {@link #createMappings(List, int, double, int)} computed by dynamic programming on (n-gram, covered tokens).
+   * @param data list of ngrams, sorted by position
+   * @param totalLenght total length of the sentence
+   * @param threshold coverage threshold
+   * @param maxDist maximum distance between two ngrams
+   * @return number of interpretations
+   */
+  public static long countMappings(final List<Ngram> data, final int totalLenght, final double threshold, final int maxDist) {
+    final Lattice lattice = new Lattice(data, totalLenght, threshold, maxDist);
+    // chainsTo[i][c]: number of chains ending with the i-th n-gram and covering c tokens
+    final long[][] chainsTo = new long[lattice.ngrams.length][totalLenght + 1];
+    for (int i = 0; i < chainsTo.length; i++) {
+      chainsTo[i][lattice.length[i]]++;
+    }
+    long res = 0;
+    for (int i = 0; i < chainsTo.length; i++) {
+      for (int c = 0; c <= totalLenght; c++) {
+        if (chainsTo[i][c] > 0) {
+          if (c >= threshold) {
+            res += chainsTo[i][c];
+          }
+          if (lattice.extensible(i, c)) {
+            for (int j = lattice.succFrom[i]; j < lattice.succTo[i]; j++) {
+              chainsTo[j][c + lattice.length[j]] += chainsTo[i][c];
+            }
+          }
         }
       }
     }
     return res;
   }
 
+  /** Bits of the begin, of the end and of the index of an n-gram in the sort keys of {@link #prune(List, double)}. */
+  private static final int RANGE_BITS = 21;
+  private static final int RANGE_MASK = (1 << RANGE_BITS) - 1;
+
+  /**
+   * Remove the n-grams covered by a confident n-gram (i.e., whose similarity is at least `nGramSimThr`).
+   * An n-gram is removed if it is equal to an n-gram `n` for which there is a confident n-gram `m` (not equal to `n`) such that
+   * the range of `m` contains the range of `n`, and either `m` is longer or `n` is not confident.
+   * Ranges are compared as primitive intervals on the token positions, in O(n log n).
+   * @param matches n-grams
+   * @param nGramSimThr similarity threshold of the confident n-grams
+   * @return the remaining n-grams, in the same order
+   * @throws IllegalArgumentException if there are more than 2^21 n-grams or positions (they do not fit in the sort keys)
+   */
+  private static List<Ngram> prune(final List<Ngram> matches, final double nGramSimThr) {
+    final int size = matches.size();
+    if (size > RANGE_MASK + 1) {
+      throw new IllegalArgumentException("Too many n-grams to prune: " + size);
+    }
+    final int[] begin = new int[size];
+    final int[] end = new int[size];
+    final boolean[] confident = new boolean[size];
+    int maxPos = 0;
+    for (int k = 0; k < size; k++) {
+      final Ngram n = matches.get(k);
+      begin[k] = n.pos().getLeft();
+      end[k] = n.pos().getRight();
+      confident[k] = n.similarity() >= nGramSimThr;
+      maxPos = Math.max(maxPos, end[k]);
+      if (begin[k] < 0 || end[k] < begin[k] || end[k] > RANGE_MASK) {
+        throw new IllegalArgumentException("Position out of range: " + n.pos());
+      }
+    }
+    // maxEnd[b]: highest end of a confident n-gram beginning at b; before[b]: highest end of a confident n-gram beginning before b
+    final int[] maxEnd = new int[maxPos + 1];
+    final int[] before = new int[maxPos + 2];
+    Arrays.fill(maxEnd, -1);
+    Arrays.fill(before, -1);
+    for (int k = 0; k < size; k++) {
+      if (confident[k]) {
+        maxEnd[begin[k]] = Math.max(maxEnd[begin[k]], end[k]);
+      }
+    }
+    for (int b = 0; b <= maxPos; b++) {
+      before[b + 1] = Math.max(before[b], maxEnd[b]);
+    }
+    // sort by range, so that n-grams with the same range (among which equal n-grams) are contiguous
+    final long[] byRange = new long[size];
+    for (int k = 0; k < size; k++) {
+      byRange[k] = (long) begin[k] << 2 * RANGE_BITS | (long) end[k] << RANGE_BITS | k;
+    }
+    Arrays.sort(byRange);
+    final boolean[] removed = new boolean[size];
+    for (int from = 0, to; from < size; from = to) {
+      final long range = byRange[from] >>> RANGE_BITS;
+      to = from + 1;
+      while (to < size && byRange[to] >>> RANGE_BITS == range) {
+        to++;
+      }
+      for (int r = from; r < to; r++) {
+        final int n = (int) (byRange[r] & RANGE_MASK);
+        // contained in a longer confident n-gram
+        boolean covered = before[begin[n]] >= end[n] || maxEnd[begin[n]] > end[n];
+        // not confident, and with the same range of a different confident n-gram
+        for (int q = from; !covered && !confident[n] && q < to; q++) {
+          final int m = (int) (byRange[q] & RANGE_MASK);
+          covered = confident[m] && !matches.get(m).equals(matches.get(n));
+        }
+        if (covered) { // remove the n-gram and the ones equal to it
+          for (int q = from; q < to; q++) {
+            final int x = (int) (byRange[q] & RANGE_MASK);
+            removed[x] = removed[x] || x == n || matches.get(x).equals(matches.get(n));
+          }
+        }
+      }
+    }
+    final List<Ngram> res = Lists.newArrayListWithCapacity(size);
+    for (int k = 0; k < size; k++) {
+      if (!removed[k]) {
+        res.add(matches.get(k));
+      }
+    }
+    return res;
+  }
+
   /**
    * @param nlQuery NL sentence
    * @param thrSimilarityMember soglia per la simialrità tra i membri
@@ -196,6 +581,53 @@ public final class Mapper {
    * @throws Exception in case of error
    */
   public static List<Mapping> createMappings(final String nlQuery, final double thrSimilarityMember, final double thrSimilarityMetadata, final int synMember, final int synMeta, final double percPhrase, final int maxDist, final int ngramSize, final double nGramSimThr, final Map<String, Object> stats, boolean skipCleaning) throws Exception {
+    final Pair<Integer, List<Ngram>> matches = matchNgrams(nlQuery, thrSimilarityMember, thrSimilarityMetadata, synMember, synMeta, percPhrase, maxDist, ngramSize, nGramSimThr, stats, skipCleaning);
+    final int sentenceLength = matches.getLeft();
+    final List<Ngram> validMatch = matches.getRight();
+
+    // create all possible interpretations from ngrams
+    final long startTime = System.currentTimeMillis();
+    final double threshold = sentenceLength * percPhrase;
+    final int k = maxMappings;
+    final List<Mapping> interpretationsSentence;
+    if (k > 0) { // only the best interpretations, the others are just counted
+      interpretationsSentence = createMappings(validMatch, sentenceLength, threshold, maxDist, k);
+      stats.put("sentence_count", countMappings(validMatch, sentenceLength, threshold, maxDist));
+    } else {
+      final ForkJoinPool pool = enumerationPool;
+      interpretationsSentence = pool == null ? createMappings(validMatch, sentenceLength, threshold, maxDist) : createMappings(validMatch, sentenceLength, threshold, maxDist, pool);
+      stats.put("sentence_count", interpretationsSentence.size());
+    }
+    stats.put("sentence_time", System.currentTimeMillis() - startTime);
+    L.warn("--- n sentences: " + interpretationsSentence.size());
+    Utils.writeParsing("result_interpretation", "I_" + nlQuery + "_" + thrSimilarityMember + "_" + thrSimilarityMetadata + "_" + synMember + "_" + synMeta + "_" + percPhrase + "_" + maxDist + "_" + ngramSize, interpretationsSentence);
+    return interpretationsSentence;
+  }
+
+  /**
+   * As {@link #createMappings(String, double, double, int, int, double, int, int, double, Map, boolean)}, but the interpretations
+   * are generated lazily (in the same order) while the stream is consumed; they are neither counted nor written.
+   * @param nlQuery NL sentence
+   * @param thrSimilarityMember soglia per la simialrità tra i membri
+   * @param thrSimilarityMetadata soglia per la similarità tra i metadati
+   * @param synMember numero massimo di sinonimi che voglio prendere
+   * @param synMeta numero massimo di sinonimi che voglio prendere
+   * @param percPhrase la percentuale di frase massima che posso non considerare nella mia interpretazione
+   * @param maxDist la distanza massima tra due ngrammi in termini di posizione delle parole nella frase
+   * @param skipCleaning whether stopwords are kept
+   * @return stream of interpreted mappings
+   * @throws Exception in case of error
+   */
+  public static Stream<Mapping> streamMappings(final String nlQuery, final double thrSimilarityMember, final double thrSimilarityMetadata, final int synMember, final int synMeta, final double percPhrase, final int maxDist, final int ngramSize, final double nGramSimThr, final Map<String, Object> stats, boolean skipCleaning) throws Exception {
+    final Pair<Integer, List<Ngram>> matches = matchNgrams(nlQuery, thrSimilarityMember, thrSimilarityMetadata, synMember, synMeta, percPhrase, maxDist, ngramSize, nGramSimThr, stats, skipCleaning);
+    return streamMappings(matches.getRight(), matches.getLeft(), matches.getLeft() * percPhrase, maxDist);
+  }
+
+  /**
+   * Tokenize a sentence and match its n-grams.
+   * @return the number of tokens and the matched n-grams, sorted by position
+   */
+  private static Pair<Integer, List<Ngram>> matchNgrams(final String nlQuery, final double thrSimilarityMember, final double thrSimilarityMetadata, final int synMember, final int synMeta, final double percPhrase, final int maxDist, final int ngramSize, final double nGramSimThr, final Map<String, Object> stats, boolean skipCleaning) throws Exception {
     Long startTime = System.currentTimeMillis();
 
     // lemmatizzazione e tagging della frase usando coreNLP
@@ -222,69 +654,61 @@ public final class Mapper {
     // }
 
     final List<String> tokens = cleanSentence(nlQuery, skipCleaning);
-    final Map<String, String> wordsNer = Maps.newLinkedHashMap();
-    tokens.forEach(t -> {
-      try {
-        Double.parseDouble(t.replace(",", ".")); // TODO what to do if v is a year??? DATE AND YEAR???
-        wordsNer.put(t, JDBCType.NUMERIC.toString());
-      } catch (final Exception e) {
-      }
-    });
+    final Literals.Kind[] literals = new Literals.Kind[tokens.size()]; // numbers, years and dates
+    for (int i = 0; i < tokens.size(); i++) {
+      literals[i] = Literals.recognize(tokens.get(i));
+    }
     stats.put("lemmatization_time", System.currentTimeMillis() - startTime);
     stats.put("lemmatization_sentence", StringUtils.join(tokens));
     L.debug("--- lemmatized sentence: " + StringUtils.join(tokens));
 
     // Cerco i match tra i token e i termini nel DB
     startTime = System.currentTimeMillis();
+    // Lookups of the windows (the literals are not looked up), in position order
+    final ExecutorService executor = lookupExecutor;
+    final List<Future<List<Triple<Entity, Double, String>>>> lookups = Lists.newArrayList();
     final List<Ngram> validMatch = Lists.newArrayList();
-    for (int i = 0; i < tokens.size(); i++) {
-      for (int j = ngramSize; j >= 1; j--) { // Creo tutti gli ngrammi possibili da ngramSize a 1
-        int idxend = i + j;
-        if (idxend <= tokens.size()) {
-          final List<String> ngrams = tokens.subList(i, idxend);
-          if (wordsNer.containsKey(StringUtils.join(ngrams))) { // Se l'ngramma è taggato lo aggiungo ai match
-            final Ngram n = new Ngram(StringUtils.join(ngrams), Type.VAL, new Entity(StringUtils.join(ngrams), Utils.getDataType(wordsNer.get(StringUtils.join(ngrams)))), Pair.of(i, (i + j - 1)));
-            validMatch.add(n);
-          } else { // Altrimenti cerco i migliori sinonimi tra i membri e i migliori tra i metadati
-            final List<Triple<Entity, Double, String>> syns = DBsynonyms.getEntities(ngrams, thrSimilarityMember, thrSimilarityMetadata, synMember, synMeta);
-            for (final Triple<Entity, Double, String> dbm : syns) {
-              final Ngram ngram = new Ngram(StringUtils.join(ngrams), getNgramType(dbm.getLeft()), dbm.getLeft(), dbm.getMiddle(), dbm.getRight(), Pair.of(i, (i + j - 1)));
-              validMatch.add(ngram);
+    try {
+      for (int i = 0; i < tokens.size(); i++) {
+        for (int j = ngramSize; j >= 1; j--) {
+          if (i + j <= tokens.size() && (j > 1 || literals[i] == null)) {
+            final List<String> ngrams = tokens.subList(i, i + j);
+            final Callable<List<Triple<Entity, Double, String>>> lookup = () -> DBsynonyms.getEntities(ngrams, thrSimilarityMember, thrSimilarityMetadata, synMember, synMeta);
+            lookups.add(submit(executor, lookup));
+          }
+        }
+      }
+      final Iterator<Future<List<Triple<Entity, Double, String>>>> results = lookups.iterator();
+      for (int i = 0; i < tokens.size(); i++) {
+        for (int j = ngramSize; j >= 1; j--) { // Creo tutti gli ngrammi possibili da ngramSize a 1
+          int idxend = i + j;
+          if (idxend <= tokens.size()) {
+            final List<String> ngrams = tokens.subList(i, idxend);
+            if (j == 1 && literals[i] != null) { // Se il token è un letterale lo aggiungo ai match
+              final Ngram n = new Ngram(tokens.get(i), Type.VAL, Entity.of(tokens.get(i), literals[i].dataType()), Pair.of(i, i));
+              validMatch.add(n);
+            } else { // Altrimenti cerco i migliori sinonimi tra i membri e i migliori tra i metadati
+              final List<Triple<Entity, Double, String>> syns = Futures.getUnchecked(results.next());
+              for (final Triple<Entity, Double, String> dbm : syns) {
+                final Ngram ngram = new Ngram(StringUtils.join(ngrams), getNgramType(dbm.getLeft()), dbm.getLeft(), dbm.getMiddle(), dbm.getRight(), Pair.of(i, (i + j - 1)));
+                validMatch.add(ngram);
+              }
             }
           }
         }
       }
+    } finally { // if a lookup fails, the queued ones are not run (a no-op for the done ones)
+      lookups.forEach(f -> f.cancel(false));
     }
     stats.put("match_count", validMatch.size());
-    final List<Ngram> confidentMatch = validMatch.stream().filter(n -> n.similarity() >= nGramSimThr).collect(Collectors.toList());
-    confidentMatch.stream() //
-        .forEach(m -> { //
-          final Set<Integer> range = IntStream.rangeClosed(m.pos().getLeft(), m.pos().getRight()).boxed().collect(Collectors.toSet());
-          final List<Ngram> toRemove = validMatch //
-              .stream() // get the non-confident ngrams that intersect with the current ngram
-              .filter(n -> {
-                final Set<Integer> currange = IntStream.rangeClosed(n.pos().getLeft(), n.pos().getRight()).boxed().collect(Collectors.toSet());
-                return !m.equals(n) // do not remove myself
-                        && (currange.size() < range.size() || currange.size() == range.size() && n.similarity() < nGramSimThr)
-                        && range.containsAll(currange);
-              })
-              .collect(Collectors.toList());
-          validMatch.removeAll(toRemove);
-        });
+    final List<Ngram> prunedMatch = prune(validMatch, nGramSimThr);
+    validMatch.clear();
+    validMatch.addAll(prunedMatch);
     validMatch.sort(Ngram::compareNgrams);
     stats.put("match_time", System.currentTimeMillis() - startTime);
     stats.put("match_confident_count", validMatch.size());
     L.debug("--- n matches: " + validMatch.size());
     Utils.writeMappings("result_interpretation", "M_" + nlQuery + "_" + thrSimilarityMember + "_" + thrSimilarityMetadata + "_" + synMember + "_" + synMeta + "_" + percPhrase + "_" + maxDist + "_" + ngramSize, validMatch);
-
-    // create all possible interpretations from ngrams
-    startTime = System.currentTimeMillis();
-    final double threshold = tokens.size() * percPhrase;
-    final List<Mapping> interpretationsSentence = createMappings(new ArrayList<>(validMatch), tokens.size(), threshold, maxDist);
-    stats.put("sentence_time", System.currentTimeMillis() - startTime);
-    stats.put("sentence_count", interpretationsSentence.size());
-    L.warn("--- n sentences: " + interpretationsSentence.size());
-    Utils.writeParsing("result_interpretation", "I_" + nlQuery + "_" + thrSimilarityMember + "_" + thrSimilarityMetadata + "_" + synMember + "_" + synMeta + "_" + percPhrase + "_" + maxDist + "_" + ngramSize, interpretationsSentence);
-    return interpretationsSentence;
+    return Pair.of(tokens.size(), validMatch);
   }
 }
@@ -1,53 +1,92 @@
 package it.unibo.conversational.algorithms;
 
-import java.util.LinkedList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
-import java.util.TreeMap;
 
-import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 
 import it.unibo.conversational.Utils;
 
 /**
  * Match between two strings. Marriage problem.
+ * Tokens are identified by their position (so repeated tokens are distinct), similarities are computed once
+ * into a matrix and the preferences are derived from it; ties are broken by position.
  */
 public final class MarriageProblem {
   private MarriageProblem() {
   }
 
   /**
-   * @param token a token
-   * @param tokens a list of tokens
-   * @return list of tokens sorted by similarity to token
+   * @param first a list of tokens
+   * @param second another list of tokens
+   * @return similarity[i][j] is the similarity between the i-th token of `first` and the j-th token of `second`
    */
-  private static List<String> getListPreferences(final String token, final List<String> tokens) {
-    final List<String> tmp = Lists.newLinkedList(tokens);
-    tmp.sort((String o1, String o2) -> -Double.compare(Utils.tokenSimilarity(token, o1), Utils.tokenSimilarity(token, o2)));
-    return tmp;
+  public static double[][] similarities(final List<String> first, final List<String> second) {
+    final double[][] res = new double[first.size()][second.size()];
+    for (int i = 0; i < first.size(); i++) {
+      for (int j = 0; j < second.size(); j++) {
+        res[i][j] = Utils.tokenSimilarity(first.get(i), second.get(j));
+      }
+    }
+    return res;
+  }
+
+  /**
+   * @param similarity similarities of a row to the columns
+   * @return the columns, sorted by decreasing similarity
+   */
+  private static int[] preferences(final double[] similarity) {
+    final Integer[] order = new Integer[similarity.length];
+    Arrays.setAll(order, i -> i);
+    Arrays.sort(order, (i, j) -> -Double.compare(similarity[i], similarity[j])); // stable
+    return Arrays.stream(order).mapToInt(Integer::intValue).toArray();
   }
 
-  private static Map<String, String> match(final List<String> guys, final Map<String, List<String>> guyPrefers, final Map<String, List<String>> girlPrefers) {
-    Map<String, String> engagedTo = new TreeMap<String, String>();
-    List<String> freeGuys = new LinkedList<String>();
-    freeGuys.addAll(guys);
-    while (!freeGuys.isEmpty()) {
-      String thisGuy = freeGuys.remove(0); // get a load of THIS guy
-      List<String> thisGuyPrefers = guyPrefers.get(thisGuy);
-      for (String girl : thisGuyPrefers) {
-        if (engagedTo.get(girl) == null) { // girl is free
-          engagedTo.put(girl, thisGuy); // awww
+  /**
+   * Gale-Shapley stable matching, the rows propose to the columns.
+   * @param similarity similarity matrix (see {@link #similarities(List, List)})
+   * @return for each column, the matched row (-1 if none)
+   */
+  public static int[] match(final double[][] similarity) {
+    final int rows = similarity.length;
+    final int cols = rows == 0 ? 0 : similarity[0].length;
+    final int[][] rowPrefers = new int[rows][];
+    for (int i = 0; i < rows; i++) {
+      rowPrefers[i] = preferences(similarity[i]);
+    }
+    // colRank[j][i]: position of the i-th row in the preferences of the j-th column
+    final int[][] colRank = new int[cols][rows];
+    final double[] column = new double[rows];
+    for (int j = 0; j < cols; j++) {
+      for (int i = 0; i < rows; i++) {
+        column[i] = similarity[i][j];
+      }
+      final int[] prefers = preferences(column);
+      for (int r = 0; r < rows; r++) {
+        colRank[j][prefers[r]] = r;
+      }
+    }
+    final int[] engagedTo = new int[cols];
+    Arrays.fill(engagedTo, -1);
+    final int[] next = new int[rows]; // next column to propose to
+    final int[] queue = new int[rows * (cols + 1)]; // free rows, a row is enqueued at first and once per rejection
+    int head = 0;
+    int tail = 0;
+    for (int i = 0; i < rows; i++) {
+      queue[tail++] = i;
+    }
+    while (head < tail) {
+      final int row = queue[head++];
+      while (next[row] < cols) {
+        final int col = rowPrefers[row][next[row]++];
+        if (engagedTo[col] < 0) { // the column is free
+          engagedTo[col] = row;
+          break;
+        } else if (colRank[col][row] < colRank[col][engagedTo[col]]) { // the column prefers this row
+          queue[tail++] = engagedTo[col];
+          engagedTo[col] = row;
           break;
-        } else {
-          String otherGuy = engagedTo.get(girl);
-          List<String> thisGirlPrefers = girlPrefers.get(girl);
-          if (thisGirlPrefers.indexOf(thisGuy) < thisGirlPrefers.indexOf(otherGuy)) {
-            // this girl prefers this guy to the guy she's engaged to
-            engagedTo.put(girl, thisGuy);
-            freeGuys.add(otherGuy);
-            break;
-          } // else no change...keep looking for this guy
         }
       }
     }
@@ -61,14 +100,26 @@ public final class MarriageProblem {
    * @return match indexes
    */
   public static Map<Integer, Integer> getBestMatch(final List<String> first, final List<String> second) {
+    return getBestMatch(first, second, similarities(first, second));
+  }
+
+  /**
+   * Risoluzione del matching problem tra due insiemi di stringhe.
+   * @param first a string
+   * @param second another string
+   * @param similarity similarity matrix (see {@link #similarities(List, List)})
+   * @return match indexes (from `first` to `second`), sorted by the matched token of `second`
+   */
+  public static Map<Integer, Integer> getBestMatch(final List<String> first, final List<String> second, final double[][] similarity) {
+    final int[] engagedTo = match(similarity);
+    final Integer[] cols = new Integer[engagedTo.length];
+    Arrays.setAll(cols, j -> j);
+    Arrays.sort(cols, (i, j) -> second.get(i).compareTo(second.get(j))); // stable
     final Map<Integer, Integer> res = Maps.newLinkedHashMap();
-    final Map<String, List<String>> firstPreferences = Maps.newLinkedHashMap();
-    final Map<String, List<String>> secondPreferences = Maps.newLinkedHashMap();
-    first.stream().forEach(s -> firstPreferences.put(s, getListPreferences(s, second)));
-    second.stream().forEach(s -> secondPreferences.put(s, getListPreferences(s, first)));
-    final Map<String, String> matches = match(first, firstPreferences, secondPreferences);
-    for (final String f : matches.keySet()) {
-      res.put(first.indexOf(matches.get(f)), second.indexOf(f));
+    for (final int j : cols) {
+      if (engagedTo[j] >= 0) {
+        res.put(engagedTo[j], j);
+      }
     }
     return res;
   }
@@ -1,22 +1,24 @@
 package it.unibo.conversational.algorithms;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.Stack;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import org.apache.commons.lang3.NotImplementedException;
 import org.apache.commons.lang3.tuple.Pair;
 
 import com.google.common.collect.ImmutableList;
-import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 
 import it.unibo.conversational.Utils.DataType;
+import it.unibo.conversational.database.Catalog;
 import it.unibo.conversational.database.QueryGeneratorChecker;
 import it.unibo.conversational.datatypes.Entity;
 import it.unibo.conversational.datatypes.Mapping;
@@ -28,11 +30,6 @@ import it.unibo.conversational.datatypes.Ngram.ErrorType;
  */
 public final class Parser {
 
-  private static Map<String, Set<Entity>> operatorOfMeasure = QueryGeneratorChecker.getOperatorOfMeasure();
-  private static Map<String, Set<Entity>> membersofLevels = QueryGeneratorChecker.getMembersofLevels();
-  private static Map<String, Set<Entity>> levelsOfMembers = QueryGeneratorChecker.getLevelsOfMembers();
-  private static Set<Entity> yearLevels = QueryGeneratorChecker.getYearLevels();
-
   private Parser() {
   }
 
@@ -145,8 +142,8 @@ public final class Parser {
     /** Q ::= MC. */
     Q11(Type.Q, Type.MC);
 
-    private final Type[] elements;
-    private final Type ret;
+    final Type[] elements;
+    final Type ret;
 
     /**
      * Create a rule.
@@ -173,6 +170,13 @@ public final class Parser {
     }
   }
 
+  /** Rules of the parsing, applied group by group. */
+  private static final List<Rule[]> RULES = ImmutableList.of(//
+      new Rule[] { Rule.M1, Rule.M2, Rule.M5, Rule.M3, Rule.M4 }, //
+      new Rule[] { Rule.G1, Rule.G2 }, //
+      new Rule[] { Rule.S1, Rule.S2, Rule.S3, Rule.S4, Rule.S5, Rule.S6, Rule.S7 }, //
+      new Rule[] { Rule.Q1, Rule.Q2, Rule.Q3, Rule.Q4, Rule.Q5, Rule.Q6, Rule.Q7, Rule.Q8, Rule.Q9, Rule.Q10, Rule.Q11 }//
+  );
 
   /**
    * Parse a mapping.
@@ -180,21 +184,51 @@ public final class Parser {
    * @return parsing interpretations sorted by number of matched entities
    */
   public static Optional<Mapping> parse(final Mapping mapping) {
-    final Set<Mapping> res = parse(Lists.newArrayList(//
-        new Rule[] { Rule.M1, Rule.M2, Rule.M5, Rule.M3, Rule.M4 }, //
-        new Rule[] { Rule.G1, Rule.G2 }, //
-        new Rule[] { Rule.S1, Rule.S2, Rule.S3, Rule.S4, Rule.S5, Rule.S6, Rule.S7 }, //
-        new Rule[] { Rule.Q1, Rule.Q2, Rule.Q3, Rule.Q4, Rule.Q5, Rule.Q6, Rule.Q7, Rule.Q8, Rule.Q9, Rule.Q10, Rule.Q11 }//
-    ), mapping);
+    return parse(mapping, Maps.newHashMap());
+  }
+
+  /**
+   * Parse a mapping.
+   * @param mapping mapping to be translated
+   * @param stats statistics of the parsing (see {@link #parse(List, Mapping, Map)})
+   * @return parsing interpretations sorted by number of matched entities
+   */
+  public static Optional<Mapping> parse(final Mapping mapping, final Map<String, Object> stats) {
+    final Set<Mapping> res = parse(RULES, mapping, stats);
     return res.isEmpty() ? Optional.empty()
         : res.stream() //
             .filter(s -> s.ngrams.stream().anyMatch(n -> n.type.equals(Type.Q))) //
             .max(Mapping::compareMappings);
   }
 
+  /**
+   * Parse a stream of mappings as they are produced (see {@link Mapper#streamMappings(List, int, double, int)}),
+   * without keeping them.
+   * @param mappings mappings to be translated
+   * @return the best parsing interpretation, if any
+   */
+  public static Optional<Mapping> parse(final Stream<Mapping> mappings) {
+    return mappings.map(Parser::parse).filter(Optional::isPresent).map(Optional::get).max(Mapping::compareMappings);
+  }
+
+  /**
+   * Parse the interpretations of a list of ngrams, i.e., {@link #parse(Stream)} on {@link Mapper#streamMappings(List, int, double, int)},
+   * without parsing each interpretation (see {@link LatticeParser}).
+   * @param data list of ngrams, sorted by position
+   * @param totalLenght total length of the sentence
+   * @param threshold coverage threshold
+   * @param maxDist maximum distance between two ngrams
+   * @param stats statistics of the parsing (see {@link #parse(List, Mapping, Map)}), `parse_types` is increased by the parsed sequences of types
+   * @return the best parsing interpretation, if any
+   */
+  public static Optional<Mapping> parse(final List<Ngram> data, final int totalLenght, final double threshold, final int maxDist, final Map<String, Object> stats) {
+    return LatticeParser.parse(RULES, new Lattice(data, totalLenght, threshold, maxDist), stats);
+  }
+
   public static void typeCheck(final Mapping m) {
     for (Ngram n : m.ngrams.stream().filter(n -> !n.children.isEmpty()).collect(Collectors.toList())) {
-      typeCheck(n, operatorOfMeasure, membersofLevels, levelsOfMembers);
+      final Catalog catalog = Catalog.get();
+      typeCheck(n, catalog.operatorOfMeasure(), catalog.membersOfLevels(), catalog.levelsOfMembers());
     }
   }
 
@@ -247,7 +281,8 @@ public final class Parser {
 
   public static void infer(final Mapping m) {
     for (Ngram n : m.ngrams) {
-      infer(n, operatorOfMeasure, membersofLevels, levelsOfMembers, yearLevels);
+      final Catalog catalog = Catalog.get();
+      infer(n, catalog.operatorOfMeasure(), catalog.membersOfLevels(), catalog.levelsOfMembers(), catalog.yearLevels());
     }
   }
 
@@ -284,18 +319,17 @@ public final class Parser {
         if (c.children.size() == 2) { // the clause contains both a level and a value
           final Ngram lev = c.children.stream().filter(cc -> cc.type.equals(Type.ATTR)).findAny().get();
           final Ngram val = c.children.stream().filter(cc -> cc.type.equals(Type.VAL)).findAny().get();
-          final Ngram eq = new Ngram("=", Type.COP, new Entity("="), lev.pos());
+          final Ngram eq = new Ngram("=", Type.COP, Entity.of("="), lev.pos());
           c.setChildren(ImmutableList.of(lev, eq, val));
         } else if (c.children.size() == 1) { // the clause contains only a value
           // If you are here, you are either:
-          // - a member NUMERIC/DATE member
-          // - a member from a categorical attribute with the reference to the corresponding level
+          // - a NUMERIC member (i.e., a year)
+          // - a member (also a DATE) from a categorical attribute with the reference to the corresponding level
           final Ngram val = c.children.stream().filter(cc -> cc.type.equals(Type.VAL)).findAny().get();
-          final Ngram eq = new Ngram("=", Type.COP, new Entity("="), val.pos());
+          final Ngram eq = new Ngram("=", Type.COP, Entity.of("="), val.pos());
           switch (val.typeInDB()) {
           case NUMERIC:
-            final double value = Double.parseDouble(val.tokens);
-            if (value >= 1900 && value <= 2155) { // you are a date (boundaries are compliant with year type in MySQL)
+            if (Literals.isYear(val.tokens)) { // you are a date
               final Entity levEntity = dateAttributes.stream().findAny().get(); // TODO an entity is picked randomly
               final Ngram lev = new Ngram(levEntity.nameInTable(), Type.ATTR, levEntity, val.pos());
               c.setChildren(ImmutableList.of(lev, eq, val));
@@ -303,8 +337,7 @@ public final class Parser {
               throw new IllegalArgumentException("What should I do with dangling value " + val + " ?");
             }
             break;
-          case DATE:
-            throw new IllegalArgumentException("What should I do with dangling date " + val + " ?");
+          case DATE: // as a string, the date can be a member (e.g., of a day level)
           case STRING:
             final Set<Entity> candidates = val2attr.get(val.mde().nameInTable());
             if (candidates != null && !candidates.isEmpty()) {
@@ -329,6 +362,65 @@ public final class Parser {
     return ngram;
   }
 
+  /** Max number of sentences remembered by {@link #parse(List, Mapping, Map)}, beyond it the sentences are expanded again. */
+  private static final int MAX_VISITED = 1 << 16;
+
+  /** A sentence in the search of {@link #parse(List, Mapping, Map)}, with the hashes of its n-grams computed once. */
+  private static final class State {
+    private final Mapping mapping;
+    /** hashes[i]: hash of the i-th n-gram, consistent with {@link Ngram#equals(Object)}. */
+    private final int[] hashes;
+    private final int hash;
+
+    private State(final Mapping mapping, final int[] hashes) {
+      this.mapping = mapping;
+      this.hashes = hashes;
+      this.hash = Arrays.hashCode(hashes);
+    }
+
+    private State(final Mapping mapping) {
+      this(mapping, mapping.ngrams.stream().mapToInt(State::hash).toArray());
+    }
+
+    /** @return hash of an n-gram, a parse tree is hashed from the hashes of its children */
+    private static int hash(final Ngram ngram) {
+      return ngram.children.isEmpty() ? ngram.hashCode() : 31 * ngram.type.hashCode() + Arrays.hashCode(ngram.children.stream().mapToInt(State::hash).toArray());
+    }
+
+    /** @return the sentence where the n-grams i ... i + size - 1 are replaced by `ngram` */
+    private State rewrite(final int i, final int size, final Ngram ngram) {
+      final List<Ngram> sentence = mapping.ngrams;
+      final List<Ngram> tmp = ImmutableList.<Ngram>builderWithExpectedSize(sentence.size() - size + 1)
+          .addAll(sentence.subList(0, i))
+          .add(ngram)
+          .addAll(sentence.subList(i + size, sentence.size()))
+          .build();
+      final int[] h = new int[tmp.size()];
+      System.arraycopy(hashes, 0, h, 0, i);
+      final int[] children = new int[size]; // the hashes of the replaced n-grams, in the order of the children
+      for (int c = 0; c < size; c++) {
+        int j = i;
+        while (sentence.get(j) != ngram.children.get(c)) {
+          j++;
+        }
+        children[c] = hashes[j];
+      }
+      h[i] = 31 * ngram.type.hashCode() + Arrays.hashCode(children);
+      System.arraycopy(hashes, i + size, h, i + 1, sentence.size() - i - size);
+      return new State(new Mapping(tmp), h);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+      return obj instanceof State && hash == ((State) obj).hash && mapping.equals(((State) obj).mapping);
+    }
+  }
+
   /**
    * Parse a mapping.
    * @param rules list of rules to apply in the parsing
@@ -336,15 +428,43 @@ public final class Parser {
    * @return parsing interpretations sorted by number of matched entities
    */
   public static Set<Mapping> parse(final List<Rule[]> rules, final Mapping mapping) {
+    return parse(rules, mapping, Maps.newHashMap());
+  }
+
+  /**
+   * Parse a mapping.
+   * The same sentence is often reached by applying the rules in different orders, it is expanded only once
+   * (the expanded sentences are remembered up to {@value #MAX_VISITED}).
+   * A sentence is skipped when it is popped: sentences only shrink, so its sentences have already been translated
+   * and the translated sentences, and their order, are the ones of the search without memoization.
+   * @param rules list of rules to apply in the parsing
+   * @param mapping mapping to be translated
+   * @param stats statistics, `parse_expanded` and `parse_deduplicated` are increased by the expanded and the skipped sentences
+   * @return parsing interpretations sorted by number of matched entities
+   */
+  public static Set<Mapping> parse(final List<Rule[]> rules, final Mapping mapping, final Map<String, Object> stats) {
     // stack of translated sentences
     final Set<Mapping> t = Sets.newLinkedHashSet();
+    // sentences already expanded, a sentence expanded again would add the same translated sentences
+    final Set<State> visited = Sets.newHashSet();
+    long expanded = 0;
+    long deduplicated = 0;
     // init the sentence search space
-    final Stack<Mapping> s = new Stack<Mapping>();
-    s.push(mapping);
+    final Stack<State> s = new Stack<State>();
+    s.push(new State(mapping));
     while (!s.isEmpty()) {
       boolean isChanged = false;
       // pick a sentence
-      final List<Ngram> sentence = s.pop().ngrams;
+      final State current = s.pop();
+      if (visited.contains(current)) {
+        deduplicated++;
+        continue;
+      }
+      if (visited.size() < MAX_VISITED) {
+        visited.add(current);
+      }
+      expanded++;
+      final List<Ngram> sentence = current.mapping.ngrams;
       // foreach rule...
       for (final Rule[] rul : rules) {
         for (int i = 0; i < sentence.size(); i++) {
@@ -355,10 +475,8 @@ public final class Parser {
             }
             final List<Ngram> subsentence = sentence.subList(i, i + size);
             if (r.match(subsentence)) { // check if the ngrams match the rule type
-              final List<Ngram> tmp = Lists.newArrayList(sentence);
-              tmp.add(i, new Ngram(r.ret, subsentence)); // add the generated (new) ngram
-              tmp.removeAll(subsentence); // and remove the previous ngrams
-              s.push(new Mapping(tmp)); // add the sentence to the search space
+              // replace the previous ngrams with the generated (new) one
+              s.push(current.rewrite(i, size, new Ngram(r.ret, subsentence))); // add the sentence to the search space
               isChanged = true;
               i += size - 1;
               break;
@@ -367,9 +485,11 @@ public final class Parser {
         }
       }
       if (!isChanged) { // if the sentence is unchanged (no transformation can be applied)...
-        t.add(new Mapping(sentence)); // it can be added to the translated sentences
+        t.add(current.mapping); // it can be added to the translated sentences
       }
     }
+    stats.merge("parse_expanded", expanded, (a, b) -> (Long) a + (Long) b);
+    stats.merge("parse_deduplicated", deduplicated, (a, b) -> (Long) a + (Long) b);
     return t;
   }
 
@@ -0,0 +1,395 @@
+package it.unibo.conversational.algorithms;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Inverted index from the (padded) q-grams of the tokens to the ids of lists of tokens.
+ * Given a similarity threshold, the search drops the lists that cannot reach it according to {@link it.unibo.conversational.Utils#tokenSimilarity(List, List)}.
+ * Let A and B be the total length of two lists of tokens; the similarity is never above min(A, B) / max(A, B) (length filter).
+ * Each edit destroys at most q padded q-grams of a token, so the matched tokens must share at least
+ * (1 - q (1 - thr)) * sum(max length of the matched tokens) + (matched tokens) * (q - 1) q-grams (count filter).
+ * The returned ids must be verified by the caller.
+ * An index can be written in binary format (see {@link #write(DataOutput)}) and searched in place, e.g., in a memory mapped file
+ * (see {@link #search(Source, long, List, double, BitSet)}).
+ */
+public final class QGramIndex {
+  /** Length of the q-grams. */
+  private static final int Q = 2;
+  /** Padding at the begin of a token. */
+  private static final char BEGIN = '\u0002';
+  /** Padding at the end of a token. */
+  private static final char END = '\u0003';
+  /** Slack for the filters, they must never drop a valid list. */
+  private static final double EPS = 1e-9;
+
+  /** Postings of a q-gram: ids (in increasing order) and multiplicity of the q-gram in each list. */
+  private static final class Postings {
+    private int[] ids = new int[2];
+    private int[] counts = new int[2];
+    private int size;
+
+    private void add(final int id, final int count) {
+      if (size == ids.length) {
+        ids = Arrays.copyOf(ids, size * 2);
+        counts = Arrays.copyOf(counts, size * 2);
+      }
+      ids[size] = id;
+      counts[size++] = count;
+    }
+  }
+
+  /** Scratch buffers of a search, reused by each thread. */
+  private static final class Scratch {
+    private int[] common = new int[0];
+    private int[] touched = new int[0];
+  }
+
+  /** Random access to a written index, e.g., a memory mapped file (big endian). */
+  public interface Source {
+    /**
+     * @param position position
+     * @return the int at the given position
+     */
+    int getInt(long position);
+
+    /**
+     * @param position position
+     * @return the long at the given position
+     */
+    long getLong(long position);
+  }
+
+  /** Size of the header of a written index: number of ids, max length, number of slots, unfiltered ids and ids by length. */
+  private static final int HEADER = 5 * Integer.BYTES;
+  /** Size of a slot of a written index: q-gram, size and position (from the begin of the index) of its postings. */
+  private static final int SLOT = 2 * Integer.BYTES + Long.BYTES;
+  /** Scratch buffers of the searches in written indexes. */
+  private static final ThreadLocal<Scratch> SOURCE_SCRATCH = ThreadLocal.withInitial(Scratch::new);
+
+  private final Map<Integer, Postings> postings = Maps.newHashMap();
+  /** Number of tokens of each id. */
+  private int[] nTokens = new int[0];
+  /** Total length of the tokens of each id. */
+  private int[] lengths = new int[0];
+  /** Ids grouped by total length, used when the count filter cannot discard lists sharing no q-gram. */
+  private final List<BitSet> byLength = Lists.newArrayList();
+  /** Ids that the filters cannot handle (see {@link #isFilterable(List)}), they are always returned. */
+  private final BitSet unfiltered = new BitSet();
+  /** All the ids in the index. */
+  private final BitSet all = new BitSet();
+  private final ThreadLocal<Scratch> scratch = ThreadLocal.withInitial(Scratch::new);
+
+  /**
+   * The bounds assume that lower casing does not change the token length (the distance is computed in lower case, the similarity with the original lengths).
+   * Repeated tokens are fine: {@link MarriageProblem} matches tokens by position, so the q-grams shared by the matched pairs
+   * sum up to at most the q-grams shared by the two lists (counted with multiplicity).
+   * @param tokens list of tokens
+   * @return true if the filters can be applied to the list
+   */
+  private static boolean isFilterable(final List<String> tokens) {
+    for (final String t: tokens) {
+      if (t.toLowerCase().length() != t.length()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @param tokens list of tokens
+   * @return multiplicity of each padded q-gram of the tokens
+   */
+  private static Map<Integer, Integer> qgrams(final List<String> tokens) {
+    final Map<Integer, Integer> grams = Maps.newHashMap();
+    for (final String t: tokens) {
+      final String lower = t.toLowerCase();
+      char prev = BEGIN;
+      for (int i = 0; i <= lower.length(); i++) {
+        final char cur = i < lower.length() ? lower.charAt(i) : END;
+        grams.merge(prev << 16 | cur, 1, Integer::sum);
+        prev = cur;
+      }
+    }
+    return grams;
+  }
+
+  private static int totalLength(final List<String> tokens) {
+    int length = 0;
+    for (final String t: tokens) {
+      length += t.length();
+    }
+    return length;
+  }
+
+  /**
+   * Add a list of tokens to the index. Ids must be added in increasing order.
+   * @param tokens list of tokens
+   * @param id identifier of the list
+   */
+  public void add(final List<String> tokens, final int id) {
+    if (id >= nTokens.length) {
+      nTokens = Arrays.copyOf(nTokens, Math.max(id + 1, nTokens.length * 2));
+      lengths = Arrays.copyOf(lengths, nTokens.length);
+    }
+    nTokens[id] = tokens.size();
+    lengths[id] = totalLength(tokens);
+    all.set(id);
+    if (!isFilterable(tokens)) {
+      unfiltered.set(id);
+      return;
+    }
+    qgrams(tokens).forEach((gram, count) -> postings.computeIfAbsent(gram, g -> new Postings()).add(id, count));
+    while (byLength.size() <= lengths[id]) {
+      byLength.add(new BitSet());
+    }
+    byLength.get(lengths[id]).set(id);
+  }
+
+  /**
+   * Minimum number of q-grams that two lists must share to reach the threshold.
+   * @param na number of tokens in the first list
+   * @param a total length of the first list
+   * @param nb number of tokens in the second list
+   * @param b total length of the second list
+   * @param thr similarity threshold
+   * @return minimum number of shared q-grams
+   */
+  private static double minCommon(final int na, final int a, final int nb, final int b, final double thr) {
+    final double c = 1 - Q * (1 - thr);
+    final double sumMax;
+    if (c >= 0) { // lower bound of the summed length of the matched tokens
+      sumMax = Math.max(na == nb ? Math.max(a, b) : na < nb ? a : b, thr * Math.max(a, b));
+    } else { // upper bound of the summed length of the matched tokens
+      sumMax = Math.min(a + b, Math.min(a, b) / thr);
+    }
+    return c * sumMax + Math.min(na, nb) * (Q - 1);
+  }
+
+  private static boolean mayReach(final int na, final int a, final int nb, final int b, final int common, final double thr) {
+    return (double) Math.min(a, b) / Math.max(a, b) >= thr - EPS && common >= minCommon(na, a, nb, b, thr) - EPS;
+  }
+
+  /**
+   * Add to `candidates` the ids of the lists whose similarity with the given tokens can be above the threshold.
+   * @param tokens list of tokens
+   * @param thr similarity threshold
+   * @param candidates accumulator
+   */
+  public void search(final List<String> tokens, final double thr, final BitSet candidates) {
+    if (thr <= 0 || !isFilterable(tokens)) {
+      candidates.or(all);
+      return;
+    }
+    candidates.or(unfiltered);
+    final int na = tokens.size();
+    final int a = totalLength(tokens);
+    final Scratch s = scratch.get();
+    if (s.common.length < nTokens.length) {
+      s.common = new int[nTokens.length];
+      s.touched = new int[nTokens.length];
+    }
+    final int[] common = s.common;
+    final int[] touched = s.touched;
+    int nTouched = 0;
+    for (final Map.Entry<Integer, Integer> gram: qgrams(tokens).entrySet()) {
+      final Postings p = postings.get(gram.getKey());
+      if (p == null) {
+        continue;
+      }
+      for (int i = 0; i < p.size; i++) {
+        final int id = p.ids[i];
+        if (common[id] == 0) {
+          touched[nTouched++] = id;
+        }
+        common[id] += Math.min(gram.getValue(), p.counts[i]);
+      }
+    }
+    for (int i = 0; i < nTouched; i++) {
+      final int id = touched[i];
+      if (mayReach(na, a, nTokens[id], lengths[id], common[id], thr)) {
+        candidates.set(id);
+      }
+    }
+    if (1 - Q * (1 - thr) < 0) { // lists sharing no q-gram can still reach the threshold
+      final int from = (int) Math.floor(a * thr);
+      final int to = (int) Math.min(byLength.size() - 1, Math.ceil(a / thr));
+      for (int l = Math.max(from, 0); l <= to; l++) {
+        final BitSet ids = byLength.get(l);
+        for (int id = ids.nextSetBit(0); id >= 0; id = ids.nextSetBit(id + 1)) {
+          if (common[id] == 0 && mayReach(na, a, nTokens[id], l, 0, thr)) {
+            candidates.set(id);
+          }
+        }
+      }
+    }
+    for (int i = 0; i < nTouched; i++) {
+      common[touched[i]] = 0;
+    }
+  }
+
+  /** @return the first slot of a q-gram in a table of the given size (a power of two) */
+  private static int slot(final int gram, final int capacity) {
+    final int h = gram * 0x9E3779B9;
+    return (h ^ h >>> 16) & capacity - 1;
+  }
+
+  /**
+   * Write the index in binary format, it can be searched in place by {@link #search(Source, long, List, double, BitSet)}.
+   * Layout: the header (see {@link #HEADER}), the number of tokens and the total length (-1 if absent) of each id, the unfiltered ids,
+   * the first index in the ids by length of each length, the ids by length, the open addressing table of the q-grams (see {@link #SLOT}),
+   * the postings (id and count).
+   * @param out output
+   * @throws IOException in case of error
+   */
+  public void write(final DataOutput out) throws IOException {
+    final int n = all.length();
+    int capacity = 1;
+    while (capacity < postings.size() * 2) {
+      capacity <<= 1;
+    }
+    final int[] grams = new int[capacity];
+    for (final int gram: postings.keySet()) {
+      int slot = slot(gram, capacity);
+      while (grams[slot] != 0) { // q-grams are never 0, the first character is at least BEGIN
+        slot = slot + 1 & capacity - 1;
+      }
+      grams[slot] = gram;
+    }
+    final int byLengthIds = byLength.stream().mapToInt(BitSet::cardinality).sum();
+    out.writeInt(n);
+    out.writeInt(byLength.size() - 1);
+    out.writeInt(capacity);
+    out.writeInt(unfiltered.cardinality());
+    out.writeInt(byLengthIds);
+    for (int id = 0; id < n; id++) {
+      out.writeInt(nTokens[id]);
+    }
+    for (int id = 0; id < n; id++) {
+      out.writeInt(all.get(id) ? lengths[id] : -1);
+    }
+    for (int id = unfiltered.nextSetBit(0); id >= 0; id = unfiltered.nextSetBit(id + 1)) {
+      out.writeInt(id);
+    }
+    int first = 0;
+    for (final BitSet ids: byLength) {
+      out.writeInt(first);
+      first += ids.cardinality();
+    }
+    out.writeInt(first);
+    for (final BitSet ids: byLength) {
+      for (int id = ids.nextSetBit(0); id >= 0; id = ids.nextSetBit(id + 1)) {
+        out.writeInt(id);
+      }
+    }
+    long position = HEADER + 2L * n * Integer.BYTES + (long) (unfiltered.cardinality() + byLength.size() + 1 + byLengthIds) * Integer.BYTES + (long) capacity * SLOT;
+    for (final int gram: grams) {
+      final Postings p = gram == 0 ? null : postings.get(gram);
+      out.writeInt(gram);
+      out.writeInt(p == null ? 0 : p.size);
+      out.writeLong(position);
+      position += p == null ? 0 : 2L * p.size * Integer.BYTES;
+    }
+    for (final int gram: grams) {
+      if (gram != 0) {
+        final Postings p = postings.get(gram);
+        for (int i = 0; i < p.size; i++) {
+          out.writeInt(p.ids[i]);
+          out.writeInt(p.counts[i]);
+        }
+      }
+    }
+  }
+
+  /**
+   * Add to `candidates` the ids of the lists whose similarity with the given tokens can be above the threshold,
+   * searching an index written by {@link #write(DataOutput)} in place. The candidates are the ones of {@link #search(List, double, BitSet)}.
+   * @param source written index
+   * @param base position of the index in the source
+   * @param tokens list of tokens
+   * @param thr similarity threshold
+   * @param candidates accumulator
+   */
+  public static void search(final Source source, final long base, final List<String> tokens, final double thr, final BitSet candidates) {
+    final int n = source.getInt(base);
+    final int maxLength = source.getInt(base + Integer.BYTES);
+    final int capacity = source.getInt(base + 2 * Integer.BYTES);
+    final int nUnfiltered = source.getInt(base + 3 * Integer.BYTES);
+    final long nTokensAt = base + HEADER;
+    final long lengthsAt = nTokensAt + (long) n * Integer.BYTES;
+    final long unfilteredAt = lengthsAt + (long) n * Integer.BYTES;
+    final long byLengthAt = unfilteredAt + (long) nUnfiltered * Integer.BYTES;
+    final long byLengthIdsAt = byLengthAt + (long) (maxLength + 2) * Integer.BYTES;
+    final long slotsAt = byLengthIdsAt + (long) source.getInt(base + 4 * Integer.BYTES) * Integer.BYTES;
+    if (thr <= 0 || !isFilterable(tokens)) {
+      for (int id = 0; id < n; id++) {
+        if (source.getInt(lengthsAt + (long) id * Integer.BYTES) >= 0) {
+          candidates.set(id);
+        }
+      }
+      return;
+    }
+    for (int i = 0; i < nUnfiltered; i++) {
+      candidates.set(source.getInt(unfilteredAt + (long) i * Integer.BYTES));
+    }
+    final int na = tokens.size();
+    final int a = totalLength(tokens);
+    final Scratch s = SOURCE_SCRATCH.get();
+    if (s.common.length < n) {
+      s.common = new int[n];
+      s.touched = new int[n];
+    }
+    final int[] common = s.common;
+    final int[] touched = s.touched;
+    int nTouched = 0;
+    for (final Map.Entry<Integer, Integer> gram: qgrams(tokens).entrySet()) {
+      for (int slot = slot(gram.getKey(), capacity);; slot = slot + 1 & capacity - 1) {
+        final long at = slotsAt + (long) slot * SLOT;
+        final int g = source.getInt(at);
+        if (g == gram.getKey()) {
+          final int size = source.getInt(at + Integer.BYTES);
+          final long postingsAt = base + source.getLong(at + 2 * Integer.BYTES);
+          for (int i = 0; i < size; i++) {
+            final int id = source.getInt(postingsAt + 2L * i * Integer.BYTES);
+            if (common[id] == 0) {
+              touched[nTouched++] = id;
+            }
+            common[id] += Math.min(gram.getValue(), source.getInt(postingsAt + (2L * i + 1) * Integer.BYTES));
+          }
+        }
+        if (g == gram.getKey() || g == 0) {
+          break;
+        }
+      }
+    }
+    for (int i = 0; i < nTouched; i++) {
+      final int id = touched[i];
+      if (mayReach(na, a, source.getInt(nTokensAt + (long) id * Integer.BYTES), source.getInt(lengthsAt + (long) id * Integer.BYTES), common[id], thr)) {
+        candidates.set(id);
+      }
+    }
+    if (1 - Q * (1 - thr) < 0) { // lists sharing no q-gram can still reach the threshold
+      final int from = (int) Math.floor(a * thr);
+      final int to = (int) Math.min(maxLength, Math.ceil(a / thr));
+      for (int l = Math.max(from, 0); l <= to; l++) {
+        final int end = source.getInt(byLengthAt + (long) (l + 1) * Integer.BYTES);
+        for (int i = source.getInt(byLengthAt + (long) l * Integer.BYTES); i < end; i++) {
+          final int id = source.getInt(byLengthIdsAt + (long) i * Integer.BYTES);
+          if (common[id] == 0 && mayReach(na, a, source.getInt(nTokensAt + (long) id * Integer.BYTES), l, 0, thr)) {
+            candidates.set(id);
+          }
+        }
+      }
+    }
+    for (int i = 0; i < nTouched; i++) {
+      common[touched[i]] = 0;
+    }
+  }
+}
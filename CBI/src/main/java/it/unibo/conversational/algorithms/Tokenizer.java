@@ -0,0 +1,170 @@
+package it.unibo.conversational.algorithms;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+/**
+ * First stage of the pipeline: split a sentence into tokens and drop the stopwords.
+ * Tokens are the maximal sequences of characters other than space and underscore.
+ * Stopwords are read once from `stopwords.txt` into an immutable open-addressing table,
+ * which is probed with a range of the sentence, so discarded tokens never become strings.
+ */
+public final class Tokenizer {
+  private Tokenizer() {
+  }
+
+  /** Stopwords, loaded on first use. */
+  private static final class StopWords {
+    private static final String[] TABLE = load();
+
+    private static String[] load() {
+      final List<String> words = Lists.newArrayList();
+      try (BufferedReader br = new BufferedReader(new InputStreamReader(Tokenizer.class.getClassLoader().getResourceAsStream("stopwords.txt"), StandardCharsets.UTF_8))) {
+        String st;
+        while ((st = br.readLine()) != null) {
+          words.add(st);
+        }
+      } catch (final IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      final String[] table = new String[Integer.highestOneBit(Math.max(words.size(), 1) * 4)];
+      for (final String w: words) {
+        int slot = w.hashCode() & table.length - 1;
+        while (table[slot] != null && !table[slot].equals(w)) {
+          slot = slot + 1 & table.length - 1;
+        }
+        table[slot] = w;
+      }
+      return table;
+    }
+
+    /** @return true if text[from, to) is a stopword */
+    private static boolean contains(final String text, final int from, final int to) {
+      int hash = 0; // same as String.hashCode()
+      for (int i = from; i < to; i++) {
+        hash = 31 * hash + text.charAt(i);
+      }
+      for (int slot = hash & TABLE.length - 1; TABLE[slot] != null; slot = slot + 1 & TABLE.length - 1) {
+        final String w = TABLE[slot];
+        if (w.length() == to - from && text.regionMatches(from, w, 0, to - from)) {
+          return true;
+        }
+      }
+      return false;
+    }
+  }
+
+  /**
+   * Tokens of a sentence, stored as ranges of the sentence. A buffer can be reused for any number of sentences.
+   * It is not thread safe.
+   */
+  public static final class Tokens {
+    private String text = "";
+    private int[] begin = new int[16];
+    private int[] end = new int[16];
+    private int size;
+
+    private void add(final int from, final int to) {
+      if (size == begin.length) {
+        begin = Arrays.copyOf(begin, size * 2);
+        end = Arrays.copyOf(end, size * 2);
+      }
+      begin[size] = from;
+      end[size++] = to;
+    }
+
+    /**
+     * @return number of tokens
+     */
+    public int size() {
+      return size;
+    }
+
+    /**
+     * @param i index
+     * @return the i-th token
+     */
+    public String get(final int i) {
+      if (i >= size) {
+        throw new IndexOutOfBoundsException("Index: " + i + ", size: " + size);
+      }
+      return text.substring(begin[i], end[i]);
+    }
+
+    /**
+     * @return the tokens as strings
+     */
+    public List<String> toList() {
+      final String[] res = new String[size];
+      Arrays.setAll(res, this::get);
+      return Arrays.asList(res);
+    }
+  }
+
+  private static final ThreadLocal<Tokens> BUFFERS = ThreadLocal.withInitial(Tokens::new);
+
+  /**
+   * Tokenize a sentence into a buffer.
+   * @param nl natural language sentence
+   * @param keepStopwords whether stopwords are kept
+   * @param buffer buffer, its previous content is discarded
+   * @return the buffer
+   */
+  public static Tokens tokenize(final String nl, final boolean keepStopwords, final Tokens buffer) {
+    buffer.text = nl;
+    buffer.size = 0;
+    int from = -1;
+    for (int i = 0; i <= nl.length(); i++) {
+      final boolean separator = i == nl.length() || nl.charAt(i) == ' ' || nl.charAt(i) == '_';
+      if (!separator && from < 0) {
+        from = i;
+      } else if (separator && from >= 0) {
+        if (keepStopwords || !StopWords.contains(nl, from, i)) {
+          buffer.add(from, i);
+        }
+        from = -1;
+      }
+    }
+    return buffer;
+  }
+
+  /**
+   * Tokenize a sentence into the buffer of the current thread.
+   * @param nl natural language sentence
+   * @param keepStopwords whether stopwords are kept
+   * @return the buffer of the current thread, valid until the next call on the same thread
+   */
+  public static Tokens tokenize(final String nl, final boolean keepStopwords) {
+    return tokenize(nl, keepStopwords, BUFFERS.get());
+  }
+
+  /**
+   * Split a term (e.g., a synonym in the database) into tokens, stopwords are kept.
+   * @param term term
+   * @return the tokens
+   */
+  public static List<String> split(final String term) {
+    final Tokens tokens = tokenize(term, true);
+    final ImmutableList.Builder<String> res = ImmutableList.builderWithExpectedSize(tokens.size());
+    for (int i = 0; i < tokens.size(); i++) {
+      res.add(tokens.get(i));
+    }
+    return res.build();
+  }
+
+  /**
+   * @param word a word
+   * @return true if the word is a stopword
+   */
+  public static boolean isStopword(final String word) {
+    return StopWords.contains(word, 0, word.length());
+  }
+}
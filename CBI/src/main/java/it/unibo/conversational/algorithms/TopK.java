@@ -0,0 +1,117 @@
+package it.unibo.conversational.algorithms;
+
+import java.util.Arrays;
+import java.util.List;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * The k best elements of a stream, by decreasing score; ties are won by the element offered first.
+ * Elements are kept in a bounded min-heap (the root is the worst kept element), so memory is O(k)
+ * and, once the heap is full, {@link #bar()} tells the score that a new element must beat.
+ * It is not thread safe.
+ * @param <T> type of the elements
+ */
+public final class TopK<T> {
+  private final int k;
+  private final Object[] elements;
+  private final double[] scores;
+  /** Arrival order of the elements, used to break ties. */
+  private final long[] seqs;
+  private int size;
+  private long seq;
+
+  /**
+   * @param k number of elements to keep
+   */
+  public TopK(final int k) {
+    this.k = Math.max(k, 0);
+    elements = new Object[this.k];
+    scores = new double[this.k];
+    seqs = new long[this.k];
+  }
+
+  /** @return true if the element at i is worse than the one at j */
+  private boolean worse(final int i, final int j) {
+    return scores[i] < scores[j] || scores[i] == scores[j] && seqs[i] > seqs[j];
+  }
+
+  private void swap(final int i, final int j) {
+    final Object e = elements[i];
+    elements[i] = elements[j];
+    elements[j] = e;
+    final double s = scores[i];
+    scores[i] = scores[j];
+    scores[j] = s;
+    final long q = seqs[i];
+    seqs[i] = seqs[j];
+    seqs[j] = q;
+  }
+
+  /**
+   * Offer an element.
+   * @param element element
+   * @param score score of the element
+   * @return true if the element is kept (for now)
+   */
+  public boolean offer(final T element, final double score) {
+    final long s = seq++;
+    if (size < k) {
+      elements[size] = element;
+      scores[size] = score;
+      seqs[size] = s;
+      for (int i = size++; i > 0 && worse(i, (i - 1) / 2); i = (i - 1) / 2) { // sift up
+        swap(i, (i - 1) / 2);
+      }
+      return true;
+    }
+    if (k == 0 || score <= scores[0]) { // not better than the worst kept element (which arrived before)
+      return false;
+    }
+    elements[0] = element;
+    scores[0] = score;
+    seqs[0] = s;
+    for (int i = 0;;) { // sift down
+      final int l = 2 * i + 1;
+      if (l >= size) {
+        break;
+      }
+      final int c = l + 1 < size && worse(l + 1, l) ? l + 1 : l;
+      if (!worse(c, i)) {
+        break;
+      }
+      swap(i, c);
+      i = c;
+    }
+    return true;
+  }
+
+  /**
+   * @return true if k elements are kept
+   */
+  public boolean isFull() {
+    return size == k;
+  }
+
+  /**
+   * @return the score that a new element must exceed to be kept (negative infinity until the heap is full)
+   */
+  public double bar() {
+    return !isFull() ? Double.NEGATIVE_INFINITY : k == 0 ? Double.POSITIVE_INFINITY : scores[0];
+  }
+
+  /**
+   * @return the kept elements, from the best
+   */
+  @SuppressWarnings("unchecked")
+  public List<T> toList() {
+    final Integer[] order = new Integer[size];
+    Arrays.setAll(order, i -> i);
+    Arrays.sort(order, (i, j) -> worse(i, j) ? 1 : worse(j, i) ? -1 : 0);
+    final ImmutableList.Builder<T> res = ImmutableList.builderWithExpectedSize(size);
+    for (final int i: order) {
+      res.add((T) elements[i]);
+    }
+    return res.build();
+  }
+}
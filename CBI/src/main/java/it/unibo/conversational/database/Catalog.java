@@ -0,0 +1,116 @@
+package it.unibo.conversational.database;
+
+import java.util.Map;
+import java.util.Set;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+
+import it.unibo.conversational.datatypes.Entity;
+
+/**
+ * Immutable snapshot of the catalog constraints used by the type checking and the inference of the parsing trees.
+ * It is loaded on first use, either from the binary snapshot (see {@link DictionarySnapshot}) or from the database.
+ */
+public final class Catalog {
+  private static volatile Catalog catalog;
+
+  /** Operators that are appliable to each measure. */
+  private final Map<String, Set<Entity>> operatorOfMeasure;
+  /** Members of each level. */
+  private final Map<String, Set<Entity>> membersOfLevels;
+  /** Levels of each member. */
+  private final Map<String, Set<Entity>> levelsOfMembers;
+  /** Levels with type "year". */
+  private final ImmutableSet<Entity> yearLevels;
+
+  /**
+   * Create a catalog.
+   * @param operatorOfMeasure operators that are appliable to each measure
+   * @param membersOfLevels members of each level
+   * @param levelsOfMembers levels of each member
+   * @param yearLevels levels with type "year"
+   */
+  public Catalog(final Map<String, Set<Entity>> operatorOfMeasure, final Map<String, Set<Entity>> membersOfLevels, final Map<String, Set<Entity>> levelsOfMembers, final Set<Entity> yearLevels) {
+    this.operatorOfMeasure = copy(operatorOfMeasure);
+    this.membersOfLevels = copy(membersOfLevels);
+    this.levelsOfMembers = copy(levelsOfMembers);
+    this.yearLevels = yearLevels == null ? ImmutableSet.of() : ImmutableSet.copyOf(yearLevels);
+  }
+
+  private static Map<String, Set<Entity>> copy(final Map<String, Set<Entity>> map) {
+    if (map instanceof MemberStore.LevelsOfMembers || map instanceof DictionarySnapshot.LevelsOfMembers) { // already read-only (and too large to copy)
+      return map;
+    }
+    final ImmutableMap.Builder<String, Set<Entity>> res = ImmutableMap.builder();
+    if (map != null) {
+      map.forEach((k, v) -> res.put(k, ImmutableSet.copyOf(v)));
+    }
+    return res.build();
+  }
+
+  /**
+   * @return the catalog, loaded on first use
+   */
+  public static Catalog get() {
+    Catalog c = catalog;
+    if (c == null) {
+      synchronized (Catalog.class) {
+        c = catalog;
+        if (c == null) {
+          c = DictionarySnapshot.readCatalog().orElseGet(Catalog::load);
+          catalog = c;
+        }
+      }
+    }
+    return c;
+  }
+
+  /**
+   * Load the catalog again (if it has already been loaded) and atomically replace it, used when members or levels are added.
+   * Readers holding the previous catalog keep using it.
+   */
+  static void reload() {
+    synchronized (Catalog.class) {
+      if (catalog != null) {
+        catalog = DictionarySnapshot.readCatalog().orElseGet(Catalog::load);
+      }
+    }
+  }
+
+  /**
+   * Load the catalog from the database.
+   * @return the catalog
+   */
+  public static Catalog load() {
+    return new Catalog(QueryGeneratorChecker.getOperatorOfMeasure(), QueryGeneratorChecker.getMembersofLevels(), QueryGeneratorChecker.getLevelsOfMembers(), QueryGeneratorChecker.getYearLevels());
+  }
+
+  /**
+   * @return a map <measure, operators> (i.e., the operators that are appliable to the given measure)
+   */
+  public Map<String, Set<Entity>> operatorOfMeasure() {
+    return operatorOfMeasure;
+  }
+
+  /**
+   * @return set members (i.e., entities) for each level
+   */
+  public Map<String, Set<Entity>> membersOfLevels() {
+    return membersOfLevels;
+  }
+
+  /**
+   * @return set of levels (i.e., entities) for each member
+   */
+  public Map<String, Set<Entity>> levelsOfMembers() {
+    return levelsOfMembers;
+  }
+
+  /**
+   * @return levels with type "year"
+   */
+  public Set<Entity> yearLevels() {
+    return yearLevels;
+  }
+}
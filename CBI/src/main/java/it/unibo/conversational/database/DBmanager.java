@@ -92,13 +92,19 @@ public class DBmanager {
   private static String port;
   private static String ip;
 
-  public static final Connection getConnection() {
-    if (connSchemaDB == null) {
+  private static void loadCredentials() {
+    if (schemadb == null) {
       ip = Utils.credentialsFromFile()[0];
       port = Utils.credentialsFromFile()[1];
       username = Utils.credentialsFromFile()[2];
       password = Utils.credentialsFromFile()[3];
       schemadb = Utils.credentialsFromFile()[6];
+    }
+  }
+
+  public static final Connection getConnection() {
+    if (connSchemaDB == null) {
+      loadCredentials();
       final String host = "jdbc:mysql://" + ip + ":" + port;
       final String schemaDBstringConnection = host + "/" + schemadb;
       try {
@@ -111,6 +117,56 @@ public class DBmanager {
     return connSchemaDB;
   }
 
+  /**
+   * Open a new connection to the schema database, used by loads that run in parallel with the shared connection. The caller must close it.
+   * @param cursorFetch if true, result sets with a positive fetch size are read through a server-side cursor
+   *                    (otherwise the driver streams rows only with fetch size Integer.MIN_VALUE and buffers them all in any other case)
+   * @return a new connection
+   * @throws SQLException in case of error
+   */
+  public static final Connection newConnection(final boolean cursorFetch) throws SQLException {
+    loadCredentials();
+    try {
+      Class.forName("com.mysql.cj.jdbc.Driver");
+    } catch (final ClassNotFoundException e) {
+      throw new SQLException(e);
+    }
+    return DriverManager.getConnection("jdbc:mysql://" + ip + ":" + port + "/" + schemadb + (cursorFetch ? "?useCursorFetch=true" : ""), username, password);
+  }
+
+  /** Consume a row of a result set. */
+  @FunctionalInterface
+  protected interface RowConsumer {
+    void accept(ResultSet res) throws SQLException;
+  }
+
+  /** Map a row of a result set to an object. */
+  @FunctionalInterface
+  protected interface RowMapper<T> {
+    T map(ResultSet res) throws SQLException;
+  }
+
+  /**
+   * Stream the result of a query on a dedicated connection, without buffering it in memory.
+   * @param query query
+   * @param fetchSize rows fetched at a time, Integer.MIN_VALUE to stream the rows one by one
+   * @param consumer consumer of each row
+   * @throws SQLException in case of error
+   */
+  protected static void stream(final String query, final int fetchSize, final RowConsumer consumer) throws SQLException {
+    try (
+        Connection conn = newConnection(fetchSize > 0);
+        Statement stmt = conn.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+    ) {
+      stmt.setFetchSize(fetchSize);
+      try (ResultSet res = stmt.executeQuery(query)) {
+        while (res.next()) {
+          consumer.accept(res);
+        }
+      }
+    }
+  }
+
   /**
    * Execute the query and return a result.
    * @param query query to execute
@@ -4,18 +4,36 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.Collectors;
 
 import org.apache.commons.lang3.tuple.Triple;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 import it.unibo.conversational.Utils;
+import it.unibo.conversational.algorithms.Tokenizer;
+import it.unibo.conversational.algorithms.TopK;
 import it.unibo.conversational.datatypes.Entity;
 
 /**
@@ -23,68 +41,536 @@ import it.unibo.conversational.datatypes.Entity;
  */
 public final class DBsynonyms extends DBmanager {
 
-  private static Map<List<String>, List<Entity>> syns = Maps.newLinkedHashMap();
-  private static Map<Object[], List<Triple<Entity, Double, String>>> cache = Maps.newLinkedHashMap();
+  /** Current snapshot of the synonyms, replaced atomically by {@link #reload()} and {@link #refresh()}. */
+  private static volatile SynonymDictionary dictionary;
+  /** Tables polled by {@link #refresh()}, whose new rows are loaded incrementally. */
+  private static final List<String> watermarkedTables = ImmutableList.of(tabSYNONYM, tabMEMBER, tabLEVEL);
+  /**
+   * Tables read by the dictionary or by the catalog, their watermarks are the version of the dictionary, of the catalog and of the snapshot (see {@link DictionarySnapshot}).
+   * A change in a table that is not polled causes a full {@link #reload()}.
+   */
+  private static final List<String> versionedTables = ImmutableList.<String>builder().addAll(watermarkedTables)
+      .add(tabMEASURE, tabGROUPBYOPERATOR, tabGRBYOPMEASURE, tabFACT, tabLANGUAGEPREDICATE, tabCOLUMN, tabTABLE).build();
+  /** For each versioned table, number of rows and highest id covered by the current dictionary. Guarded by the class lock. */
+  private static Map<String, int[]> watermarks = Maps.newHashMap();
+  /** Member store shared by the dictionary and the catalog (if the compact store is enabled), and its version. Guarded by {@link #MEMBERS_LOCK}. */
+  private static MemberStore memberStore;
+  private static Map<String, int[]> memberStoreVersion;
+  /** Lock of the member store, no other lock is taken while holding it. */
+  private static final Object MEMBERS_LOCK = new Object();
+  /** Beyond this number of changed synonyms, {@link #refresh()} empties the lookup cache instead of checking each lookup. */
+  private static final int MAX_CHANGES_CHECKED = 1000;
+  /** Rows fetched at a time while loading the synonyms, see {@link #setFetchSize(int)}. */
+  private static volatile int fetchSize = Integer.MIN_VALUE;
+  /** Default maximum number of cached lookups. */
+  public static final long DEFAULT_CACHE_SIZE = 10000;
+  private static volatile Cache<Lookup, List<Triple<Entity, Double, String>>> cache = newCache(DEFAULT_CACHE_SIZE);
+
+  /** Index of the synonym vectors (see {@link SynonymVectors}), built in background for each dictionary and then swapped in. */
+  private static volatile SynonymVectors.Index vectorIndex;
+  /** Version of the dictionary whose vector index has been requested, guarded by the lock of {@link SynonymVectors}. */
+  private static long vectorIndexRequested = -1;
+  /** Builder of the vector indexes, a single thread so that the builds do not overlap. */
+  private static final ExecutorService VECTOR_INDEXER = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder().setNameFormat("synonym-vectors").setDaemon(true).build());
+  /** Synonyms retrieved by the vector search for each requested entity. */
+  private static final int NEIGHBOURS_PER_ENTITY = 4;
+
+  /** Policy for the exact-match fast path, disabled unless set with {@link #setExactMatchPolicy(ExactMatchPolicy)}. */
+  private static volatile ExactMatchPolicy exactMatchPolicy = ExactMatchPolicy.DISABLED;
+  /** Number of ngrams that exactly match a synonym. */
+  private static final AtomicLong exactMatches = new AtomicLong();
+  /** Number of ngrams whose fuzzy search has been skipped. */
+  private static final AtomicLong fuzzySkipped = new AtomicLong();
+  /** Number of ngrams whose fuzzy search has been restricted to either members or metadata. */
+  private static final AtomicLong fuzzyNarrowed = new AtomicLong();
 
   /** Initialize the synonym management. */
   private DBsynonyms() {
   }
 
+  /**
+   * How to use the synonyms that exactly match an ngram (exact matches have similarity 1).
+   * Other synonyms can have similarity 1 as well (e.g., same tokens in a different order or case), when skipping the fuzzy search they are ignored.
+   */
+  public enum ExactMatchPolicy {
+    /** Always run the fuzzy search (default, the results are the ones of the full search). */
+    DISABLED,
+    /** Skip the fuzzy search of members (metadata) if the exact matches are at least `synMember` (`synMeta`). */
+    SATURATED,
+    /** As {@link #SATURATED}, and skip the fuzzy search of metadata if any metadata exactly matches. */
+    METADATA
+  }
+
+  /**
+   * Set the policy of the exact-match fast path.
+   * @param policy policy
+   */
+  public static void setExactMatchPolicy(final ExactMatchPolicy policy) {
+    exactMatchPolicy = policy;
+    cleanCache();
+  }
+
+  /**
+   * Counters of the exact-match fast path, cumulative over all the lookups of the process (cached lookups are not counted).
+   * They are not per sentence, so they are not part of the statistics of {@link it.unibo.conversational.algorithms.Mapper}.
+   * @return counters of the exact-match fast path
+   */
+  public static Map<String, Long> getExactMatchStats() {
+    return ImmutableMap.of("exact_match_count", exactMatches.get(), "exact_skip_count", fuzzySkipped.get(), "exact_narrow_count", fuzzyNarrowed.get());
+  }
+
+  /** Key of the lookup cache: the dictionary version, the ngram and the parameters of the search. */
+  private static final class Lookup {
+    private final long version;
+    private final List<String> tokens;
+    private final double thrSimilarityMember;
+    private final double thrSimilarityMetadata;
+    private final int synMember;
+    private final int synMeta;
+    private final int hash;
+
+    private Lookup withVersion(final long newVersion) {
+      return new Lookup(newVersion, tokens, thrSimilarityMember, thrSimilarityMetadata, synMember, synMeta);
+    }
+
+    private Lookup(final long version, final List<String> tokens, final double thrSimilarityMember, final double thrSimilarityMetadata, final int synMember, final int synMeta) {
+      this.version = version;
+      this.tokens = ImmutableList.copyOf(tokens);
+      this.thrSimilarityMember = thrSimilarityMember;
+      this.thrSimilarityMetadata = thrSimilarityMetadata;
+      this.synMember = synMember;
+      this.synMeta = synMeta;
+      this.hash = Objects.hash(version, this.tokens, thrSimilarityMember, thrSimilarityMetadata, synMember, synMeta);
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+      if (obj instanceof Lookup) {
+        final Lookup o = (Lookup) obj;
+        return hash == o.hash
+            && version == o.version
+            && synMember == o.synMember
+            && synMeta == o.synMeta
+            && Double.compare(thrSimilarityMember, o.thrSimilarityMember) == 0
+            && Double.compare(thrSimilarityMetadata, o.thrSimilarityMetadata) == 0
+            && tokens.equals(o.tokens);
+      }
+      return false;
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+  }
+
+  private static Cache<Lookup, List<Triple<Entity, Double, String>>> newCache(final long maximumSize) {
+    return CacheBuilder.newBuilder().maximumSize(maximumSize).recordStats().build();
+  }
+
+  /**
+   * Set the maximum number of cached lookups (least recently used lookups are evicted first). The cache is emptied.
+   * @param maximumSize maximum number of cached lookups
+   */
+  public static void setCacheSize(final long maximumSize) {
+    cache = newCache(maximumSize);
+  }
+
+  /**
+   * @return hit, miss and eviction statistics of the lookup cache
+   */
+  public static CacheStats getCacheStats() {
+    return cache.stats();
+  }
+
+  /** Empty the lookup cache. */
   public static void cleanCache() {
-    cache = Maps.newLinkedHashMap();
+    cache.invalidateAll();
+  }
+
+  /**
+   * Set the number of rows fetched at a time while loading the synonyms.
+   * Integer.MIN_VALUE (default) streams the rows one by one, a positive value reads them in batches through a server-side cursor.
+   * In both cases the driver never buffers the whole result set.
+   * @param size fetch size
+   */
+  public static void setFetchSize(final int size) {
+    if (size <= 0 && size != Integer.MIN_VALUE) {
+      throw new IllegalArgumentException("Fetch size must be positive or Integer.MIN_VALUE");
+    }
+    fetchSize = size;
   }
 
-  /** Load synonyms from the datawarehouse (for members: store reference to the corresponding level, for levels: store reference to the corresponding table). */
-  private static void initSynonyms() {
+  /**
+   * Stream the result of a query into a builder, on a dedicated connection.
+   * @param query query returning the synonym term and the columns read by `mapper`
+   * @param mapper maps a row to the entity
+   * @param size fetch size
+   * @return the synonyms loaded by the query
+   */
+  private static SynonymDictionary.Builder load(final String query, final RowMapper<Entity> mapper, final int size) {
+    final SynonymDictionary.Builder syns = SynonymDictionary.builder();
+    try {
+      stream(query, size, res -> syns.add(Tokenizer.split(res.getString(colSYNTERM)), mapper.map(res)));
+    } catch (final SQLException e) {
+      e.printStackTrace();
+    }
+    return syns;
+  }
+
+  /**
+   * @param marks watermarks
+   * @param table polled table
+   * @return highest id of the table, Integer.MAX_VALUE if unknown
+   */
+  private static int highestId(final Map<String, int[]> marks, final String table) {
+    return marks.containsKey(table) ? marks.get(table)[1] : Integer.MAX_VALUE;
+  }
+
+  /**
+   * Condition on the rows of a join: every id is within `to`, and (unless `from` is null) at least one id is above `from`,
+   * i.e., the rows that were not joinable at `from` (rows are only inserted, see {@link #refresh()}).
+   * @param from watermarks of the previous load, null for a full load
+   * @param to watermarks of this load
+   * @param columns id column (with its alias) of each polled table in the join
+   * @return the condition, starting with " and"
+   */
+  private static String range(final Map<String, int[]> from, final Map<String, int[]> to, final Map<String, String> columns) {
+    final StringBuilder res = new StringBuilder();
+    columns.forEach((column, table) -> res.append(" and ").append(column).append(" <= ").append(highestId(to, table)));
+    if (from != null) {
+      res.append(columns.entrySet().stream().map(e -> e.getKey() + " > " + highestId(from, e.getValue())).collect(Collectors.joining(" or ", " and (", ")")));
+    }
+    return res.toString();
+  }
+
+  /**
+   * Load synonyms from the datawarehouse (for members: store reference to the corresponding level, for levels: store reference to the corresponding table).
+   * Each table is streamed on its own connection and in parallel with the others; the partial results are merged in table order,
+   * so the synonym ids are the same as in a sequential load.
+   * @param syns accumulator
+   * @param from watermarks of the previous load (null for a full load), only the synonyms that were not loaded by it are loaded:
+   *             new synonyms, and synonyms of new members and levels
+   * @param to watermarks of this load
+   * @param compactMembers whether member synonyms are kept in a {@link MemberStore} (only for a full load)
+   */
+  private static void loadSynonyms(final SynonymDictionary.Builder syns, final Map<String, int[]> from, final Map<String, int[]> to, final boolean compactMembers) {
+    final String range = range(from, to, ImmutableMap.of("s." + id(tabSYNONYM), tabSYNONYM));
+    final String memberRange = range(from, to, ImmutableMap.of("s." + id(tabSYNONYM), tabSYNONYM, "m." + id(tabMEMBER), tabMEMBER, "l." + id(tabLEVEL), tabLEVEL));
+    final String levelRange = range(from, to, ImmutableMap.of("s." + id(tabSYNONYM), tabSYNONYM, "l." + id(tabLEVEL), tabLEVEL));
+    final int size = fetchSize;
+    final List<Callable<SynonymDictionary.Builder>> loads = Lists.newArrayList();
     // Add others
     for (final String table: tabsWithSyns.stream().filter(t -> !t.equals(tabMEMBER) && !t.equals(tabLEVEL)).collect(Collectors.toList())) {
-      String query = "select s.term, " + id(table) + ", " + name(table) + ", table_name from synonym s, " + table + " where s.reference_id = " + id(table) + " and s.table_name = '" + table + "'";
+      final String query = "select s.term, " + id(table) + ", " + name(table) + ", table_name from synonym s, " + table + " where s.reference_id = " + id(table) + " and s.table_name = '" + table + "'" + range;
+      loads.add(() -> load(query, res -> Entity.of(res.getInt(id(table)), res.getString(name(table)), table), size));
+    }
+    // Add members
+    final String members = "select m.member_id, s.term, l.level_id, m.member_name, l.level_type, l.level_name, reference_id from synonym s, member m, level l where s.table_name = 'member' and m.level_id = l.level_id and reference_id = m.member_id" + memberRange;
+    final AtomicReference<MemberStore> store = new AtomicReference<>();
+    if (compactMembers) { // the store is shared with the catalog
+      loads.add(() -> {
+        store.set(getMemberStore(to));
+        return SynonymDictionary.builder();
+      });
+    } else {
+      loads.add(() -> load(members, res -> Entity.of(res.getInt(id(tabMEMBER)), res.getString(name(tabMEMBER)), tabMEMBER, res.getInt("reference_id"), res.getString(name(tabLEVEL)), Utils.getDataType(res.getString(type(tabLEVEL)))), size));
+    }
+    // Add levels
+    final String levels = "select l.level_id, s.term, t.table_id, l.level_name, l.level_type, t.table_name, reference_id from synonym s, `level` l, `column` c, `table` t where s.table_name = 'level' and s.reference_id = l.level_id and c.column_id = l.column_id and c.table_id = t.table_id" + levelRange;
+    loads.add(() -> load(levels, res -> Entity.of(res.getInt(id(tabLEVEL)), res.getString(name(tabLEVEL)), tabLEVEL, res.getInt("reference_id"), res.getString(name(tabTABLE)), Utils.getDataType(res.getString(type(tabLEVEL)))), size));
+
+    final ExecutorService executor = Executors.newFixedThreadPool(loads.size());
+    try {
+      for (final Future<SynonymDictionary.Builder> partial: executor.invokeAll(loads)) {
+        syns.drain(partial.get());
+      }
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (final ExecutionException e) {
+      e.printStackTrace();
+    } finally {
+      executor.shutdownNow();
+    }
+    if (compactMembers) {
+      syns.members(store.get());
+    }
+  }
+
+  /**
+   * Load the members, with their levels and their synonyms, in a compact store.
+   * Members are joined with their level, column and table (as in {@link QueryGeneratorChecker#getLevelsOfMembers()}) and streamed by name,
+   * then the synonyms of the loaded members are streamed by term.
+   * @param to watermarks of the load
+   * @return the member store
+   * @throws SQLException in case of error
+   */
+  private static MemberStore loadMemberStore(final Map<String, int[]> to) throws SQLException {
+    final String join = " from member m join `level` l on m.level_id = l.level_id join `column` c on l.column_id = c.column_id join `table` t on c.table_id = t.table_id";
+    final String range = range(null, to, ImmutableMap.of("m." + id(tabMEMBER), tabMEMBER, "l." + id(tabLEVEL), tabLEVEL));
+    final MemberStore.Builder store = MemberStore.builder();
+    // binary order of the names, i.e., the order of the code points (see FrontCodedStrings#ORDER)
+    stream("select m.member_id, m.member_name, l.level_id, l.level_name, l.level_type, t.table_id" + join + " where true" + range
+        + " order by binary m.member_name, m.member_id", fetchSize, res -> {
+          final int level = res.getInt(id(tabLEVEL));
+          store.member(res.getInt(id(tabMEMBER)), res.getString(name(tabMEMBER)),
+              store.level(level, res.getString(name(tabLEVEL)), Utils.getDataType(res.getString(type(tabLEVEL))),
+                  Entity.of(level, res.getString(name(tabLEVEL)), res.getInt(id(tabTABLE)), Utils.getDataType(type(tabLEVEL)))));
+        });
+    stream("select s.term, m.member_id" + join + " join synonym s on s.table_name = 'member' and s.reference_id = m.member_id"
+        + " where s." + id(tabSYNONYM) + " <= " + highestId(to, tabSYNONYM) + range + " order by binary s.term", fetchSize,
+        res -> store.synonym(Tokenizer.split(res.getString(colSYNTERM)), res.getInt(id(tabMEMBER))));
+    return store.build();
+  }
+
+  /**
+   * Get the member store shared by the synonym dictionary and the catalog, loading it from the database if it was not loaded at the given version.
+   * @param version watermarks of the dictionary or of the catalog
+   * @return the member store
+   * @throws SQLException in case of error
+   */
+  static MemberStore getMemberStore(final Map<String, int[]> version) throws SQLException {
+    synchronized (MEMBERS_LOCK) {
+      if (memberStore == null || !sameVersion(version, memberStoreVersion)) {
+        memberStore = loadMemberStore(version);
+        memberStoreVersion = version;
+      }
+      return memberStore;
+    }
+  }
+
+  /**
+   * @param a watermarks
+   * @param b other watermarks
+   * @return true if the watermarks are the same
+   */
+  static boolean sameVersion(final Map<String, int[]> a, final Map<String, int[]> b) {
+    return a.size() == b.size() && a.entrySet().stream().allMatch(e -> Arrays.equals(e.getValue(), b.get(e.getKey())));
+  }
+
+  /**
+   * The operators of the measures have no id, their highest id is replaced by a checksum of the keys.
+   * @return for each versioned table, the number of rows and the highest id
+   * @throws SQLException in case of error
+   */
+  static Map<String, int[]> loadWatermarks() throws SQLException {
+    final Map<String, int[]> res = Maps.newHashMap();
+    for (final String table: versionedTables) {
+      final String highest = table.equals(tabGRBYOPMEASURE)
+          ? "bit_xor(crc32(concat_ws(',', " + id(tabGROUPBYOPERATOR) + ", " + id(tabMEASURE) + ")))"
+          : "max(" + id(table) + ")";
       try (
           Statement stmt = getConnection().createStatement();
-          ResultSet res = stmt.executeQuery(query);
+          ResultSet rs = stmt.executeQuery("select count(*), " + highest + " from `" + table + "`");
       ) {
-        while (res.next()) {
-          List<String> synonym = Arrays.asList(res.getString(colSYNTERM).replace("_", " ").split(" ")).stream().filter(t -> !t.isEmpty()).collect(Collectors.toList());
-          List<Entity> tmp = syns.getOrDefault(synonym, Lists.newLinkedList());
-          tmp.add(new Entity(res.getInt(id(table)), res.getString(name(table)), table));
-          syns.put(synonym, tmp);
-        }
-      } catch (final SQLException e) {
-        e.printStackTrace();
+        rs.next();
+        res.put(table, new int[] {rs.getInt(1), (int) rs.getLong(2)});
       }
     }
+    return res;
+  }
 
-    // Add members
-    String query = "select m.member_id, s.term, l.level_id, m.member_name, l.level_type, l.level_name, reference_id from synonym s, member m, level l where s.table_name = 'member' and m.level_id = l.level_id and reference_id = m.member_id";
+  /**
+   * @param table polled table
+   * @param fromId lower bound (excluded)
+   * @return number of rows whose id is greater than `fromId`
+   * @throws SQLException in case of error
+   */
+  private static int countFrom(final String table, final int fromId) throws SQLException {
     try (
         Statement stmt = getConnection().createStatement();
-        ResultSet res = stmt.executeQuery(query);
+        ResultSet rs = stmt.executeQuery("select count(*) from `" + table + "` where " + id(table) + " > " + fromId);
     ) {
-      while (res.next()) {
-        List<String> synonym = Arrays.asList(res.getString(colSYNTERM).replace("_", " ").split(" ")).stream().filter(t -> !t.isEmpty()).collect(Collectors.toList());
-        List<Entity> tmp = syns.getOrDefault(synonym, Lists.newLinkedList());
-        tmp.add(new Entity(res.getInt(id(tabMEMBER)), res.getString(name(tabMEMBER)), tabMEMBER, res.getInt("reference_id"), res.getString(name(tabLEVEL)), Utils.getDataType(res.getString(type(tabLEVEL)))));
-        syns.put(synonym, tmp);
-      }
+      rs.next();
+      return rs.getInt(1);
+    }
+  }
+
+  /**
+   * Load all the synonyms (from the snapshot, if up to date) and update the watermarks. Must be called holding the class lock.
+   * @return the synonym dictionary
+   */
+  private static SynonymDictionary loadSynonyms() {
+    try {
+      watermarks = loadWatermarks();
     } catch (final SQLException e) {
       e.printStackTrace();
+      watermarks = Maps.newHashMap();
     }
+    final Map<String, int[]> version = watermarks;
+    return DictionarySnapshot.readDictionary(version).orElseGet(() -> loadSynonyms(version));
+  }
 
-    // Add levels
-    query = "select l.level_id, s.term, t.table_id, l.level_name, l.level_type, t.table_name, reference_id from synonym s, `level` l, `column` c, `table` t where s.table_name = 'level' and s.reference_id = l.level_id and c.column_id = l.column_id and c.table_id = t.table_id";
-    try (
-        Statement stmt = getConnection().createStatement();
-        ResultSet res = stmt.executeQuery(query);
-    ) {
-      while (res.next()) {
-        List<String> synonym = Arrays.asList(res.getString(colSYNTERM).replace("_", " ").split(" ")).stream().filter(t -> !t.isEmpty()).collect(Collectors.toList());
-        List<Entity> tmp = syns.getOrDefault(synonym, Lists.newLinkedList());
-        tmp.add(new Entity(res.getInt(id(tabLEVEL)), res.getString(name(tabLEVEL)), tabLEVEL, res.getInt("reference_id"), res.getString(name(tabTABLE)), Utils.getDataType(res.getString(type(tabLEVEL)))));
-        syns.put(synonym, tmp);
+  /**
+   * Load all the synonyms from the database, up to the given watermarks.
+   * @param watermarks for each polled table, the number of rows and the highest id
+   * @return the synonym dictionary
+   */
+  static SynonymDictionary loadSynonyms(final Map<String, int[]> watermarks) {
+    final SynonymDictionary.Builder syns = SynonymDictionary.builder();
+    loadSynonyms(syns, null, watermarks, MemberStore.isEnabled());
+    return syns.build();
+  }
+
+  /**
+   * Get the current synonym dictionary, loading it on first use.
+   * Only the first load is synchronized, afterwards readers never lock.
+   * @return the synonym dictionary
+   */
+  private static SynonymDictionary getDictionary() {
+    SynonymDictionary d = dictionary;
+    if (d == null) {
+      synchronized (DBsynonyms.class) {
+        d = dictionary;
+        if (d == null) {
+          d = loadSynonyms();
+          dictionary = d;
+        }
       }
-    } catch (final SQLException e) {
-      e.printStackTrace();
     }
+    return d;
+  }
+
+  /**
+   * Load the synonyms and the catalog again and atomically replace the current ones. Lookups in progress complete on the previous dictionary.
+   * The synonyms are loaded first (checking the version of the snapshot, which is then used by the catalog as well),
+   * the catalog is replaced before the dictionary, so the members and levels of the new dictionary are always in the catalog.
+   */
+  public static void reload() {
+    synchronized (DBsynonyms.class) {
+      final SynonymDictionary d = loadSynonyms();
+      Catalog.reload();
+      dictionary = d;
+    }
+    cleanCache();
+  }
+
+  /**
+   * Incrementally refresh the dictionary with the synonyms added since the last load: synonyms whose id is above the watermark,
+   * and older synonyms of members and levels whose id is above the watermark (they were not joinable before).
+   * If members or levels have been added, the catalog is reloaded and replaced before the dictionary
+   * (with the compact store, which is shared by the catalog and the dictionary, a full {@link #reload()} is done instead).
+   * Only the cached lookups that can be affected by the new synonyms are invalidated.
+   * Deleted rows (or rows inserted below the watermark) in the synonym, member or level tables cannot be applied incrementally and cause a full {@link #reload()},
+   * as any change in the other tables read by the dictionary or by the catalog.
+   * Updates of existing rows (e.g., renamed members) are not detected.
+   */
+  public static void refresh() {
+    synchronized (DBsynonyms.class) {
+      final SynonymDictionary current = getDictionary();
+      final Map<String, int[]> now;
+      try {
+        now = loadWatermarks();
+        if (versionedTables.stream().anyMatch(t -> !watermarkedTables.contains(t) && !Arrays.equals(now.get(t), watermarks.get(t)))) {
+          reload();
+          return;
+        }
+        for (final String table: watermarkedTables) {
+          final int[] before = watermarks.get(table);
+          if (before == null || now.get(table)[0] != before[0] + countFrom(table, before[1])) {
+            reload();
+            return;
+          }
+        }
+      } catch (final SQLException e) {
+        e.printStackTrace();
+        return;
+      }
+      final boolean catalogChanged = highestId(now, tabMEMBER) != highestId(watermarks, tabMEMBER) || highestId(now, tabLEVEL) != highestId(watermarks, tabLEVEL);
+      if (catalogChanged && MemberStore.isEnabled()) {
+        reload();
+        return;
+      }
+      final SynonymDictionary.Builder delta = SynonymDictionary.builder();
+      loadSynonyms(delta, watermarks, now, false);
+      final Set<List<String>> changed = delta.synonyms();
+      watermarks = now;
+      if (catalogChanged) {
+        DictionarySnapshot.open(now); // the snapshot is outdated, so the catalog is loaded from the database
+        Catalog.reload();
+      }
+      if (changed.isEmpty()) {
+        return;
+      }
+      final SynonymDictionary updated = current.with(delta);
+      dictionary = updated;
+      carryOverCache(current.version(), updated.version(), changed);
+    }
+  }
+
+  /**
+   * Move the cached lookups of the previous dictionary to the new one, unless they can be affected by the changed synonyms.
+   * A lookup is affected if a changed synonym is at least as similar as its min threshold.
+   * This also holds with the vectors: the nearest neighbours only add candidates, which are verified against the same threshold (see {@link #candidates(SynonymDictionary, List, double, int)}).
+   * @param oldVersion version of the previous dictionary
+   * @param newVersion version of the new dictionary
+   * @param changed added (or extended) synonyms
+   */
+  private static void carryOverCache(final long oldVersion, final long newVersion, final Set<List<String>> changed) {
+    if (changed.size() > MAX_CHANGES_CHECKED) {
+      cleanCache();
+      return;
+    }
+    for (final Entry<Lookup, List<Triple<Entity, Double, String>>> e: ImmutableMap.copyOf(cache.asMap()).entrySet()) {
+      final Lookup l = e.getKey();
+      if (l.version == oldVersion) {
+        final double thr = Math.min(l.thrSimilarityMember, l.thrSimilarityMetadata);
+        if (changed.stream().noneMatch(s -> Utils.tokenSimilarity(l.tokens, s) >= thr)) {
+          cache.put(l.withVersion(newVersion), e.getValue());
+        }
+        cache.invalidate(l);
+      }
+    }
+  }
+
+  /**
+   * Get the index of the synonym vectors of a dictionary. The index is never built on the request thread:
+   * if it is not ready, its build is started in background (unless a newer dictionary has been published meanwhile)
+   * and swapped in once done.
+   * @param syns dictionary
+   * @return the index of the synonym vectors of the dictionary, null if it is not ready
+   */
+  private static SynonymVectors.Index getVectorIndex(final SynonymDictionary syns) {
+    final SynonymVectors.Index index = vectorIndex;
+    if (index != null && index.version() == syns.version()) {
+      return index;
+    }
+    synchronized (SynonymVectors.class) {
+      if (vectorIndexRequested != syns.version()) {
+        vectorIndexRequested = syns.version();
+        VECTOR_INDEXER.execute(() -> {
+          if (dictionary == syns) {
+            try {
+              vectorIndex = SynonymVectors.get().index(syns);
+            } catch (final RuntimeException e) {
+              e.printStackTrace();
+            }
+          }
+        });
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Synonyms that can be similar to an ngram: the synonyms that pass the q-gram filters and, if the vectors are enabled,
+   * the nearest neighbours of the ngram vector (if the ngram has a vector and the index is ready).
+   * @param syns dictionary
+   * @param tokens ngram
+   * @param threshold min similarity
+   * @param entities number of requested entities
+   * @return ids of the candidate synonyms, they must be verified by the caller
+   */
+  private static BitSet candidates(final SynonymDictionary syns, final List<String> tokens, final double threshold, final int entities) {
+    final BitSet candidates = syns.candidates(tokens, threshold);
+    if (SynonymVectors.isEnabled()) {
+      final SynonymVectors.Index index = getVectorIndex(syns);
+      final BitSet neighbours = index == null ? null : index.candidates(tokens, NEIGHBOURS_PER_ENTITY * entities);
+      if (neighbours != null) {
+        candidates.or(neighbours);
+      }
+    }
+    return candidates;
   }
 
   /**
@@ -97,37 +583,70 @@ public final class DBsynonyms extends DBmanager {
    * @return list of synonyms for the given token
    */
   public static List<Triple<Entity, Double, String>> getEntities(final List<String> tokens, final double thrSimilarityMember, final double thrSimilarityMetadata, final int synMember, final int synMeta) {
-    if (syns.isEmpty()) {
-      initSynonyms();
-    }
-    final Object[] lookup = new Object[] {tokens, thrSimilarityMember, thrSimilarityMetadata, synMember, synMeta};
-    List<Triple<Entity, Double, String>> cached = cache.get(lookup);
+    final SynonymDictionary syns = getDictionary();
+    final Lookup lookup = new Lookup(syns.version(), tokens, thrSimilarityMember, thrSimilarityMetadata, synMember, synMeta);
+    List<Triple<Entity, Double, String>> cached = cache.getIfPresent(lookup);
     if (cached == null) {
-      List<Triple<Entity, Double, String>> memberAcc = Lists.newLinkedList();
-      List<Triple<Entity, Double, String>> metadataAcc = Lists.newLinkedList();
-      for (final Entry<List<String>, List<Entity>> entry: syns.entrySet()) { // iterate over synonyms
-        final List<String> synonym = entry.getKey();
-        final List<Entity> referredEntities = entry.getValue();
-        final double sim = Utils.tokenSimilarity(tokens, synonym); // estimate the similarity
-        if (sim >= Math.min(thrSimilarityMember, thrSimilarityMetadata)) {
-          for (final Entity entity: referredEntities) {
-            if (entity.table().equals(tabMEMBER) && sim >= thrSimilarityMember) { // è un membro con sim suff
-              memberAcc.add(Triple.of(entity, sim, String.join(" ", synonym)));
-            } else if (!entity.table().equals(tabMEMBER) && sim >= thrSimilarityMetadata) { // è un metadato con sim suff (level, >=, by, etc.)
-              metadataAcc.add(Triple.of(entity, sim, String.join(" ", synonym)));
+      // best members and metadata, kept in bounded heaps while scanning the candidates
+      final TopK<Triple<Entity, Double, String>> memberAcc = new TopK<>(synMember);
+      final TopK<Triple<Entity, Double, String>> metadataAcc = new TopK<>(synMeta);
+      double thrMember = thrSimilarityMember;
+      double thrMetadata = thrSimilarityMetadata;
+      final List<Entity> exact = exactMatchPolicy.equals(ExactMatchPolicy.DISABLED) ? ImmutableList.of() : syns.exact(tokens);
+      if (!exact.isEmpty()) { // exact match, the similarity is 1
+        exactMatches.incrementAndGet();
+        final List<Triple<Entity, Double, String>> exactMembers = Lists.newArrayList();
+        final List<Triple<Entity, Double, String>> exactMetadata = Lists.newArrayList();
+        for (final Entity entity: exact) {
+          (entity.table().equals(tabMEMBER) ? exactMembers : exactMetadata).add(Triple.of(entity, 1.0, String.join(" ", tokens)));
+        }
+        if (thrMember <= 1 && exactMembers.size() >= synMember) {
+          exactMembers.forEach(t -> memberAcc.offer(t, t.getMiddle()));
+          thrMember = Double.POSITIVE_INFINITY;
+        }
+        if (thrMetadata <= 1 && (exactMetadata.size() >= synMeta || exactMatchPolicy.equals(ExactMatchPolicy.METADATA) && !exactMetadata.isEmpty())) {
+          exactMetadata.forEach(t -> metadataAcc.offer(t, t.getMiddle()));
+          thrMetadata = Double.POSITIVE_INFINITY;
+        }
+        if (Double.isInfinite(thrMember) && Double.isInfinite(thrMetadata)) {
+          fuzzySkipped.incrementAndGet();
+        } else if (Double.isInfinite(thrMember) || Double.isInfinite(thrMetadata)) {
+          fuzzyNarrowed.incrementAndGet();
+        }
+      }
+      final double thrMin = Math.min(thrMember, thrMetadata);
+      final BitSet candidates = Double.isInfinite(thrMin) ? new BitSet() : candidates(syns, tokens, thrMin, synMember + synMeta);
+      for (int id = candidates.nextSetBit(0); id >= 0; id = candidates.nextSetBit(id + 1)) { // iterate over candidate synonyms
+        // once a heap is full, a candidate must reach its worst similarity to enter it
+        final int kinds = syns.kinds(id);
+        double bar = Double.POSITIVE_INFINITY;
+        if ((kinds & SynonymDictionary.MEMBERS) != 0) {
+          bar = Math.max(thrMember, memberAcc.bar());
+        }
+        if ((kinds & SynonymDictionary.METADATA) != 0) {
+          bar = Math.min(bar, Math.max(thrMetadata, metadataAcc.bar()));
+        }
+        if (Double.isInfinite(bar)) {
+          continue;
+        }
+        final List<String> synonym = syns.synonym(id);
+        final double sim = Utils.tokenSimilarity(tokens, synonym, bar); // estimate the similarity
+        if (sim >= thrMin) { // the entities are only read for the similar synonyms
+          for (final Entity entity: syns.entities(id)) {
+            if (entity.table().equals(tabMEMBER) && sim >= thrMember) { // è un membro con sim suff
+              memberAcc.offer(Triple.of(entity, sim, String.join(" ", synonym)), sim);
+            } else if (!entity.table().equals(tabMEMBER) && sim >= thrMetadata) { // è un metadato con sim suff (level, >=, by, etc.)
+              metadataAcc.offer(Triple.of(entity, sim, String.join(" ", synonym)), sim);
             }
           }
         }
       }
-      final Set<Triple<Entity, Double, String>> res = memberAcc.stream().sorted((p1, p2) -> -Double.compare(p1.getMiddle(), p2.getMiddle())) // sort by similarity
-          .limit(synMember) // select the best
-          .collect(Collectors.toSet());
-      res.addAll(//
-          metadataAcc.stream().sorted((p1, p2) -> -Double.compare(p1.getMiddle(), p2.getMiddle())) // sort by similarity
-              .limit(synMeta) // select the best
-              .collect(Collectors.toSet()) //
-      );
-      cached = Lists.newArrayList(res);
+      final Set<Triple<Entity, Double, String>> res = Sets.newHashSet();
+      res.addAll(memberAcc.toList());
+      final Set<Triple<Entity, Double, String>> metadata = Sets.newHashSet();
+      metadata.addAll(metadataAcc.toList());
+      res.addAll(metadata);
+      cached = ImmutableList.copyOf(res);
       cache.put(lookup, cached);
     }
     return cached;
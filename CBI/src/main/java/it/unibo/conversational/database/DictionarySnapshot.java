@@ -0,0 +1,568 @@
+package it.unibo.conversational.database;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.io.CountingOutputStream;
+
+import it.unibo.conversational.algorithms.QGramIndex;
+import it.unibo.conversational.datatypes.Entity;
+
+/**
+ * Versioned binary snapshot of the synonym dictionary and of the catalog, used to avoid loading them through JDBC at startup.
+ * The snapshot is written by {@link #main(String[])} and used if the system property {@value #PROPERTY} points to it.
+ * The version of the snapshot is the watermarks of the tables read by the dictionary and by the catalog (see {@link DBsynonyms#loadWatermarks()}):
+ * at startup only the version is read from the database, if it differs the snapshot is ignored.
+ * The snapshot is memory mapped (see {@link MappedFile}) and the lookups are served from the mapping: synonyms and their entities,
+ * exact matches, candidates of the fuzzy matches (the q-gram index is searched in place) and levels of the members.
+ * Processes on the same host share the pages of the snapshot, only the small maps of the catalog are copied in the heap.
+ * The dictionary and the catalog are read from the same mapping, opened once for each version (see {@link #open(Map)}).
+ *
+ * Layout (big endian, positions are longs from the begin of the file):
+ * header: magic, format, positions of the entities, synonyms, exact table, q-gram index, levels of members and catalog,
+ * then the watermarks (number of tables, then table name, rows, highest id);
+ * entities: records (see {@link Entity#write(java.io.DataOutput)}), then their number and the position of each record;
+ * synonyms: records (kinds, number of tokens, tokens, number of entities, indexes of the entities), then their number and the position of each record;
+ * exact table: number of slots, then the index plus one of the synonym in each slot (0 if empty), by hash of the tokens joined by a space;
+ * q-gram index: see {@link QGramIndex#write(java.io.DataOutput)};
+ * levels of members: records (member name, number of levels, indexes of the entities), then their number, the position of the first record,
+ * the number of slots and the position of the record in each slot (0 if empty), by hash of the name;
+ * catalog: operators of measures, members of levels (number of keys, then key and indexes of the entities), year levels (indexes of the entities).
+ */
+public final class DictionarySnapshot {
+  /** System property with the path of the snapshot. */
+  public static final String PROPERTY = "conversational.snapshot";
+  private static final Logger L = LoggerFactory.getLogger(DictionarySnapshot.class);
+  private static final int MAGIC = 0x43424953;
+  private static final int FORMAT = 2;
+  /** Sections whose position is in the header, in order. */
+  private static final int ENTITIES = 0, SYNONYMS = 1, EXACT = 2, GRAMS = 3, LEVELS = 4, CATALOG = 5, SECTIONS = 6;
+  /** Size of the fixed part of the header: magic, format, and the section positions. */
+  private static final int FIXED_HEADER = 2 * Integer.BYTES + SECTIONS * Long.BYTES;
+
+  /** Snapshot opened by the last check of the version (empty if none, or outdated), null if the version has not been checked. */
+  private static volatile Optional<Mapped> current;
+
+  private DictionarySnapshot() {
+  }
+
+  /**
+   * Write the snapshot of the current database content.
+   * @param args path of the snapshot
+   * @throws Exception in case of error
+   */
+  public static void main(final String[] args) throws Exception {
+    if (args.length != 1) {
+      throw new IllegalArgumentException("Usage: DictionarySnapshot <file>");
+    }
+    final Map<String, int[]> watermarks = DBsynonyms.loadWatermarks();
+    write(Paths.get(args[0]), DBsynonyms.loadSynonyms(watermarks), Catalog.load(), watermarks);
+  }
+
+  /**
+   * @param s string
+   * @return hash of the string, spread over the low bits
+   */
+  private static int hash(final String s) {
+    final int h = s.hashCode();
+    return h ^ h >>> 16;
+  }
+
+  /**
+   * @param n number of keys
+   * @return number of slots of a hash table of `n` keys, a power of two
+   */
+  private static int capacity(final int n) {
+    int capacity = 2;
+    while (capacity < n * 2L) {
+      capacity <<= 1;
+    }
+    return capacity;
+  }
+
+  /** Sequential writer of a snapshot, it tracks the position in the file and the indexes of the entities. */
+  private static final class Writer {
+    private final CountingOutputStream counter;
+    private final DataOutputStream out;
+    /** Index of each written entity, in order of first use. */
+    private final Map<Entity, Integer> entityIds = Maps.newLinkedHashMap();
+
+    private Writer(final Path file) throws IOException {
+      counter = new CountingOutputStream(new BufferedOutputStream(Files.newOutputStream(file)));
+      out = new DataOutputStream(counter);
+    }
+
+    private long position() {
+      return counter.getCount();
+    }
+
+    private void writeEntities(final Iterable<Entity> entities) throws IOException {
+      final List<Entity> list = ImmutableList.copyOf(entities);
+      out.writeInt(list.size());
+      for (final Entity e: list) {
+        out.writeInt(entityIds.computeIfAbsent(e, k -> entityIds.size()));
+      }
+    }
+
+    private void writePositions(final long[] positions, final int n) throws IOException {
+      out.writeInt(n);
+      for (int i = 0; i < n; i++) {
+        out.writeLong(positions[i]);
+      }
+    }
+
+    /**
+     * Write an open addressing table: the number of slots, then the value of the key in each slot (0 if empty).
+     * @param hashes hash of each key
+     * @param values value of each key, not 0
+     * @param n number of keys
+     * @param longValues whether the values are longs (otherwise ints)
+     * @throws IOException in case of error
+     */
+    private void writeTable(final int[] hashes, final long[] values, final int n, final boolean longValues) throws IOException {
+      final int capacity = capacity(n);
+      final long[] slots = new long[capacity];
+      for (int i = 0; i < n; i++) {
+        int slot = hashes[i] & capacity - 1;
+        while (slots[slot] != 0) {
+          slot = slot + 1 & capacity - 1;
+        }
+        slots[slot] = values[i];
+      }
+      out.writeInt(capacity);
+      for (final long v: slots) {
+        if (longValues) {
+          out.writeLong(v);
+        } else {
+          out.writeInt((int) v);
+        }
+      }
+    }
+  }
+
+  /**
+   * Write a snapshot. The file is written sequentially (nothing is buffered in memory but the indexes) and replaced atomically.
+   * @param file path of the snapshot
+   * @param syns synonym dictionary
+   * @param catalog catalog
+   * @param watermarks version of the snapshot
+   * @throws IOException in case of error
+   */
+  public static void write(final Path file, final SynonymDictionary syns, final Catalog catalog, final Map<String, int[]> watermarks) throws IOException {
+    final Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+    final long[] sections = new long[SECTIONS];
+    final Writer w = new Writer(tmp);
+    try (DataOutputStream out = w.out) {
+      out.writeInt(MAGIC);
+      out.writeInt(FORMAT);
+      for (int s = 0; s < SECTIONS; s++) {
+        out.writeLong(0); // set once the sections are written
+      }
+      out.writeInt(watermarks.size());
+      for (final Map.Entry<String, int[]> e: watermarks.entrySet()) {
+        out.writeUTF(e.getKey());
+        out.writeInt(e.getValue()[0]);
+        out.writeInt(e.getValue()[1]);
+      }
+      // synonyms, with their exact table and their q-gram index
+      final int n = syns.size();
+      final long[] positions = new long[n];
+      final int[] hashes = new int[n];
+      final long[] ids = new long[n];
+      final QGramIndex grams = new QGramIndex();
+      for (int id = 0; id < n; id++) {
+        final List<String> synonym = syns.synonym(id);
+        positions[id] = w.position();
+        out.writeByte(syns.kinds(id));
+        out.writeInt(synonym.size());
+        for (final String token: synonym) {
+          out.writeUTF(token);
+        }
+        w.writeEntities(syns.entities(id));
+        hashes[id] = hash(String.join(" ", synonym));
+        ids[id] = id + 1;
+        grams.add(synonym, id);
+      }
+      sections[SYNONYMS] = w.position();
+      w.writePositions(positions, n);
+      sections[EXACT] = w.position();
+      w.writeTable(hashes, ids, n, false);
+      sections[GRAMS] = w.position();
+      grams.write(out);
+      // levels of members
+      final Map<String, Set<Entity>> levelsOfMembers = catalog.levelsOfMembers();
+      final long[] levels = new long[levelsOfMembers.size()];
+      final int[] levelHashes = new int[levelsOfMembers.size()];
+      int m = 0;
+      for (final Map.Entry<String, Set<Entity>> e: levelsOfMembers.entrySet()) {
+        levels[m] = w.position();
+        levelHashes[m++] = hash(e.getKey());
+        out.writeUTF(e.getKey());
+        w.writeEntities(e.getValue());
+      }
+      sections[LEVELS] = w.position();
+      out.writeInt(m);
+      w.writeTable(levelHashes, levels, m, true);
+      // catalog
+      sections[CATALOG] = w.position();
+      for (final Map<String, Set<Entity>> map: Arrays.asList(catalog.operatorOfMeasure(), catalog.membersOfLevels())) {
+        out.writeInt(map.size());
+        for (final Map.Entry<String, Set<Entity>> e: map.entrySet()) {
+          out.writeUTF(e.getKey());
+          w.writeEntities(e.getValue());
+        }
+      }
+      w.writeEntities(catalog.yearLevels());
+      // entities, last since they are collected by the other sections
+      final long[] entities = new long[w.entityIds.size()];
+      int i = 0;
+      for (final Entity e: w.entityIds.keySet()) {
+        entities[i++] = w.position();
+        e.write(out);
+      }
+      sections[ENTITIES] = w.position();
+      w.writePositions(entities, entities.length);
+    }
+    try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+      final ByteBuffer header = ByteBuffer.allocate(SECTIONS * Long.BYTES);
+      for (final long s: sections) {
+        header.putLong(s);
+      }
+      header.flip();
+      channel.write(header, 2 * Integer.BYTES);
+      channel.force(true);
+    }
+    Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /** A memory mapped snapshot. Nothing is loaded in the heap but the header, each lookup reads the mapping. */
+  static final class Mapped {
+    private final Path path;
+    private final MappedFile file;
+    private final long[] sections = new long[SECTIONS];
+    /** Watermarks of the snapshot. */
+    private final Map<String, int[]> version = Maps.newHashMap();
+
+    private Mapped(final Path path) throws IOException {
+      this.path = path;
+      this.file = new MappedFile(path);
+      if (file.size() < FIXED_HEADER || file.getInt(0) != MAGIC || file.getInt(Integer.BYTES) != FORMAT) {
+        throw new IOException("Not a snapshot (or unsupported format)");
+      }
+      for (int s = 0; s < SECTIONS; s++) {
+        sections[s] = file.getLong(2 * Integer.BYTES + (long) s * Long.BYTES);
+      }
+      final DataInputStream in = file.input(FIXED_HEADER);
+      for (int n = in.readInt(); n > 0; n--) {
+        version.put(in.readUTF(), new int[] {in.readInt(), in.readInt()});
+      }
+    }
+
+    private boolean hasVersion(final Map<String, int[]> watermarks) {
+      return DBsynonyms.sameVersion(watermarks, version);
+    }
+
+    /**
+     * @param index index of an entity in the snapshot
+     * @return the entity
+     * @throws IOException in case of error
+     */
+    private Entity entity(final int index) throws IOException {
+      return Entity.read(file.input(file.getLong(sections[ENTITIES] + Integer.BYTES + (long) index * Long.BYTES)));
+    }
+
+    private ImmutableList<Entity> readEntities(final DataInputStream in) throws IOException {
+      final ImmutableList.Builder<Entity> res = ImmutableList.builder();
+      for (int n = in.readInt(); n > 0; n--) {
+        res.add(entity(in.readInt()));
+      }
+      return res.build();
+    }
+
+    private Map<String, Set<Entity>> readMap(final DataInputStream in) throws IOException {
+      final Map<String, Set<Entity>> res = Maps.newLinkedHashMap();
+      for (int n = in.readInt(); n > 0; n--) {
+        res.put(in.readUTF(), Sets.newLinkedHashSet(readEntities(in)));
+      }
+      return res;
+    }
+
+    private Catalog catalog() throws IOException {
+      final DataInputStream in = file.input(sections[CATALOG]);
+      final Map<String, Set<Entity>> operatorOfMeasure = readMap(in);
+      final Map<String, Set<Entity>> membersOfLevels = readMap(in);
+      return new Catalog(operatorOfMeasure, membersOfLevels, new LevelsOfMembers(this), Sets.newLinkedHashSet(readEntities(in)));
+    }
+  }
+
+  /** Synonyms of a mapped snapshot: records, exact table and q-gram index are read in place. */
+  private static final class Synonyms extends SynonymDictionary.Part {
+    private final Mapped mapped;
+    private final MappedFile file;
+    private final int size;
+
+    private Synonyms(final Mapped mapped) {
+      super(0);
+      this.mapped = mapped;
+      this.file = mapped.file;
+      this.size = file.getInt(mapped.sections[SYNONYMS]);
+    }
+
+    private long position(final int id) {
+      return file.getLong(mapped.sections[SYNONYMS] + Integer.BYTES + (long) id * Long.BYTES);
+    }
+
+    private static List<String> readTokens(final DataInputStream in) throws IOException {
+      final String[] tokens = new String[in.readInt()];
+      for (int t = 0; t < tokens.length; t++) {
+        tokens[t] = in.readUTF();
+      }
+      return ImmutableList.copyOf(tokens);
+    }
+
+    @Override
+    int size() {
+      return size;
+    }
+
+    @Override
+    List<String> synonym(final int id) {
+      try {
+        return readTokens(file.input(position(id) + 1));
+      } catch (final IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+
+    @Override
+    List<Entity> entities(final int id) {
+      try {
+        final DataInputStream in = file.input(position(id) + 1);
+        readTokens(in);
+        return mapped.readEntities(in);
+      } catch (final IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+
+    @Override
+    int kinds(final int id) {
+      return file.get(position(id));
+    }
+
+    @Override
+    int id(final List<String> tokens) {
+      final long table = mapped.sections[EXACT];
+      final int capacity = file.getInt(table);
+      for (int slot = hash(String.join(" ", tokens)) & capacity - 1;; slot = slot + 1 & capacity - 1) {
+        final int id = file.getInt(table + Integer.BYTES + (long) slot * Integer.BYTES) - 1;
+        if (id < 0 || synonym(id).equals(tokens)) {
+          return id;
+        }
+      }
+    }
+
+    @Override
+    BitSet candidates(final List<String> tokens, final double threshold) {
+      final BitSet candidates = new BitSet();
+      QGramIndex.search(file, mapped.sections[GRAMS], tokens, threshold, candidates);
+      return candidates;
+    }
+  }
+
+  /** Levels of the members of a mapped snapshot, read in place (by hash of the member name). */
+  static final class LevelsOfMembers extends AbstractMap<String, Set<Entity>> {
+    private final Mapped mapped;
+    private final MappedFile file;
+    private final int size;
+    private final int capacity;
+    private final long slots;
+
+    private LevelsOfMembers(final Mapped mapped) {
+      this.mapped = mapped;
+      this.file = mapped.file;
+      this.size = file.getInt(mapped.sections[LEVELS]);
+      this.capacity = file.getInt(mapped.sections[LEVELS] + Integer.BYTES);
+      this.slots = mapped.sections[LEVELS] + 2 * Integer.BYTES;
+    }
+
+    private long record(final int slot) {
+      return file.getLong(slots + (long) slot * Long.BYTES);
+    }
+
+    private Entry<String, Set<Entity>> read(final long record) {
+      try {
+        final DataInputStream in = file.input(record);
+        final String name = in.readUTF();
+        return new SimpleImmutableEntry<>(name, ImmutableSet.copyOf(mapped.readEntities(in)));
+      } catch (final IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+
+    private String name(final long record) {
+      try {
+        return file.input(record).readUTF();
+      } catch (final IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+
+    @Override
+    public Set<Entity> get(final Object key) {
+      if (!(key instanceof String)) {
+        return null;
+      }
+      for (int slot = hash((String) key) & capacity - 1;; slot = slot + 1 & capacity - 1) {
+        final long record = record(slot);
+        if (record == 0) {
+          return null;
+        }
+        if (name(record).equals(key)) {
+          return read(record).getValue();
+        }
+      }
+    }
+
+    @Override
+    public boolean containsKey(final Object key) {
+      return get(key) != null;
+    }
+
+    @Override
+    public int size() {
+      return size;
+    }
+
+    @Override
+    public Set<Entry<String, Set<Entity>>> entrySet() {
+      return new AbstractSet<Entry<String, Set<Entity>>>() {
+        @Override
+        public int size() {
+          return size;
+        }
+
+        @Override
+        public Iterator<Entry<String, Set<Entity>>> iterator() {
+          return new Iterator<Entry<String, Set<Entity>>>() {
+            private int slot = advance(0);
+
+            private int advance(final int from) {
+              int s = from;
+              while (s < capacity && record(s) == 0) {
+                s++;
+              }
+              return s;
+            }
+
+            @Override
+            public boolean hasNext() {
+              return slot < capacity;
+            }
+
+            @Override
+            public Entry<String, Set<Entity>> next() {
+              if (!hasNext()) {
+                throw new NoSuchElementException();
+              }
+              final Entry<String, Set<Entity>> res = read(record(slot));
+              slot = advance(slot + 1);
+              return res;
+            }
+          };
+        }
+      };
+    }
+  }
+
+  /**
+   * Open the snapshot set by {@value #PROPERTY}, if its version is the given one.
+   * The snapshot is mapped again only if the path or the version changed, otherwise the current mapping is returned;
+   * the result is the mapping used by {@link #readCatalog()}.
+   * @param watermarks current version of the database
+   * @return the mapped snapshot, if any
+   */
+  static synchronized Optional<Mapped> open(final Map<String, int[]> watermarks) {
+    final String property = System.getProperty(PROPERTY);
+    Optional<Mapped> res = Optional.empty();
+    if (property != null) {
+      final Path path = Paths.get(property);
+      final Optional<Mapped> c = current;
+      if (c != null && c.isPresent() && c.get().path.equals(path) && c.get().hasVersion(watermarks)) {
+        return c;
+      }
+      if (Files.isReadable(path)) {
+        try {
+          final Mapped mapped = new Mapped(path);
+          if (mapped.hasVersion(watermarks)) {
+            res = Optional.of(mapped);
+          } else {
+            L.warn("Snapshot " + path + " is outdated, loading from the database");
+          }
+        } catch (final IOException e) {
+          L.warn("Cannot read snapshot " + path + ": " + e.getMessage());
+        }
+      }
+    }
+    current = res;
+    return res;
+  }
+
+  /**
+   * Read the synonym dictionary from the snapshot. The synonyms are served from the mapping.
+   * @param watermarks current version of the database
+   * @return the dictionary, if the snapshot is set and up to date
+   */
+  public static Optional<SynonymDictionary> readDictionary(final Map<String, int[]> watermarks) {
+    return open(watermarks).map(mapped -> SynonymDictionary.of(new Synonyms(mapped)));
+  }
+
+  /**
+   * Read the catalog from the snapshot opened by the last check of the version (see {@link #open(Map)}),
+   * so that the catalog and the dictionary come from the same mapping. If the version has not been checked yet, it is checked now.
+   * @return the catalog, if the snapshot is set and up to date
+   */
+  public static Optional<Catalog> readCatalog() {
+    if (System.getProperty(PROPERTY) == null) {
+      return Optional.empty();
+    }
+    try {
+      Optional<Mapped> mapped = current;
+      if (mapped == null) {
+        mapped = open(DBsynonyms.loadWatermarks());
+      }
+      return mapped.isPresent() ? Optional.of(mapped.get().catalog()) : Optional.empty();
+    } catch (final IOException | SQLException e) {
+      L.warn("Cannot read the catalog from the snapshot: " + e.getMessage());
+      return Optional.empty();
+    }
+  }
+}
@@ -0,0 +1,105 @@
+package it.unibo.conversational.database;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Path;
+
+import it.unibo.conversational.algorithms.QGramIndex;
+
+/**
+ * Read-only memory mapping of a file of any size (big endian).
+ * A single mapping is limited to 2 GB, so the file is mapped in chunks of {@link #CHUNK} bytes;
+ * each chunk also maps the first bytes of the next one, so a primitive value is always read from a single chunk.
+ * The pages are shared with the page cache, so processes mapping the same file share them.
+ */
+final class MappedFile implements QGramIndex.Source {
+  /** Size of a chunk. */
+  private static final long CHUNK = 1L << 30;
+  /** Bytes of the next chunk mapped by a chunk, at least the size of the largest primitive value. */
+  private static final long OVERLAP = Long.BYTES;
+
+  private final MappedByteBuffer[] chunks;
+  private final long size;
+
+  /**
+   * Map a file.
+   * @param file path of the file
+   * @throws IOException in case of error
+   */
+  MappedFile(final Path file) throws IOException {
+    try (FileChannel channel = FileChannel.open(file)) { // the mappings outlive the channel
+      size = channel.size();
+      chunks = new MappedByteBuffer[(int) Math.max(1, (size + CHUNK - 1) / CHUNK)];
+      for (int c = 0; c < chunks.length; c++) {
+        final long from = c * CHUNK;
+        chunks[c] = channel.map(MapMode.READ_ONLY, from, Math.min(size - from, CHUNK + OVERLAP));
+      }
+    }
+  }
+
+  /**
+   * @return size of the file
+   */
+  long size() {
+    return size;
+  }
+
+  private MappedByteBuffer chunk(final long position) {
+    if (position < 0 || position >= size) {
+      throw new IndexOutOfBoundsException("Position: " + position + ", size: " + size);
+    }
+    return chunks[(int) (position / CHUNK)];
+  }
+
+  /**
+   * @param position position
+   * @return the byte at the given position
+   */
+  byte get(final long position) {
+    return chunk(position).get((int) (position % CHUNK));
+  }
+
+  @Override
+  public int getInt(final long position) {
+    return chunk(position).getInt((int) (position % CHUNK));
+  }
+
+  @Override
+  public long getLong(final long position) {
+    return chunk(position).getLong((int) (position % CHUNK));
+  }
+
+  /**
+   * @param position position
+   * @return a stream reading the file from the given position, across the chunks
+   */
+  DataInputStream input(final long position) {
+    return new DataInputStream(new InputStream() {
+      private long next = position;
+
+      @Override
+      public int read() {
+        return next < size ? get(next++) & 0xFF : -1;
+      }
+
+      @Override
+      public int read(final byte[] bytes, final int off, final int len) {
+        if (next >= size) {
+          return -1;
+        }
+        // up to the end of the chunk (excluding the overlap)
+        final int n = (int) Math.min(len, Math.min(size, (next / CHUNK + 1) * CHUNK) - next);
+        final ByteBuffer b = chunk(next).duplicate();
+        b.position((int) (next % CHUNK));
+        b.get(bytes, off, n);
+        next += n;
+        return n;
+      }
+    });
+  }
+}
@@ -0,0 +1,386 @@
+package it.unibo.conversational.database;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+import it.unibo.conversational.Utils.DataType;
+import it.unibo.conversational.algorithms.FrontCodedStrings;
+import it.unibo.conversational.algorithms.QGramIndex;
+import it.unibo.conversational.datatypes.Entity;
+
+/**
+ * Compact and immutable store of the members of very large dimensions.
+ * Members are sorted by name (see {@link FrontCodedStrings#ORDER}) and identified by their rank: names are front coded, ids and levels are primitive arrays.
+ * Synonyms (tokens joined by a space) are front coded as well and refer to the ranks of their members.
+ * Rows are streamed into the {@link Builder}, so the store is built without holding the rows in the heap.
+ * Entities are created on first use and then referred by their id (see {@link Entity#id()}),
+ * so a member costs a few bytes plus the q-grams of its synonyms (used by the fuzzy lookups).
+ * The store is used if the system property {@value #PROPERTY} is true.
+ */
+public final class MemberStore {
+  /** System property that enables the compact store of the members. */
+  public static final String PROPERTY = "conversational.compactMembers";
+
+  /** Names of the members, sorted. */
+  private final FrontCodedStrings names;
+  /** Number of distinct names. */
+  private final int distinctNames;
+  /** Id of each member. */
+  private final int[] memberIds;
+  /** Level of each member (index in `levels`). */
+  private final int[] memberLevels;
+  /** Id of the entity of each member plus one, 0 until the entity is created (see {@link #entities(int)}). */
+  private final int[] entityIds;
+  private final Level[] levels;
+  /** Synonyms, in insertion order. */
+  private final FrontCodedStrings terms;
+  /** Open addressing table of the synonyms by hash: index of a synonym plus one, 0 if empty. */
+  private final int[] table;
+  /** Members of the i-th synonym are memberOfTerms[termOffsets[i]] ... memberOfTerms[termOffsets[i + 1] - 1]. */
+  private final int[] termOffsets;
+  private final int[] memberOfTerms;
+  /** Q-gram index over the synonyms (ids are the synonym indexes). */
+  private final QGramIndex grams;
+
+  /** A level, shared by its members. */
+  private static final class Level {
+    private final String name;
+    private final DataType type;
+    /** Entity returned by {@link MemberStore#levelsOfMembers()}. */
+    private final Entity entity;
+
+    private Level(final String name, final DataType type, final Entity entity) {
+      this.name = name;
+      this.type = type;
+      this.entity = entity;
+    }
+  }
+
+  /**
+   * @return true if the compact store is enabled
+   */
+  public static boolean isEnabled() {
+    return Boolean.getBoolean(PROPERTY);
+  }
+
+  /**
+   * @return a builder of a member store
+   */
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * Builder of a member store, it is not thread safe.
+   * Members are added first, sorted by name (see {@link FrontCodedStrings#ORDER}) and id, then the synonyms in any order
+   * (adjacent equal synonyms are stored once, so synonyms sorted by term are the most compact).
+   * Names and synonyms are front coded as they are added, the other columns go in primitive arrays.
+   */
+  public static final class Builder {
+    private final Map<Integer, Integer> levelIndexes = Maps.newHashMap();
+    private final List<Level> levels = Lists.newArrayList();
+    private final FrontCodedStrings.Builder names = FrontCodedStrings.builder(true);
+    private int distinctNames;
+    private String lastName;
+    private int[] memberIds = new int[16];
+    private int[] memberLevels = new int[16];
+    /** Member ids with their ranks (id in the high bits), sorted when the first synonym is added. */
+    private long[] ranks;
+    private final FrontCodedStrings.Builder terms = FrontCodedStrings.builder(false);
+    private int[] termHashes = new int[16];
+    private String lastTerm;
+    /** Synonym and member of each reference. */
+    private int[] refTerms = new int[16];
+    private int[] refMembers = new int[16];
+    private int refs;
+    private final QGramIndex grams = new QGramIndex();
+
+    private Builder() {
+    }
+
+    /**
+     * Register a level.
+     * @param levelId id of the level
+     * @param name name of the level
+     * @param type type of the level
+     * @param entity entity of the level (see {@link MemberStore#levelsOfMembers()}), can be null
+     * @return the level index
+     */
+    public int level(final int levelId, final String name, final DataType type, final Entity entity) {
+      return levelIndexes.computeIfAbsent(levelId, k -> {
+        levels.add(new Level(name, type, entity));
+        return levels.size() - 1;
+      });
+    }
+
+    /**
+     * Add a member, members are added by name and id.
+     * @param memberId id of the member
+     * @param name name of the member
+     * @param level index of the level (see {@link #level(int, String, DataType, Entity)})
+     * @return this builder
+     * @throws IllegalArgumentException if the member does not follow the previous one
+     * @throws IllegalStateException if a synonym has already been added
+     */
+    public Builder member(final int memberId, final String name, final int level) {
+      if (ranks != null) {
+        throw new IllegalStateException("Members must be added before the synonyms");
+      }
+      final int n = names.size();
+      final boolean sameName = lastName != null && lastName.equals(name);
+      if (sameName && memberIds[n - 1] >= memberId) {
+        throw new IllegalArgumentException("Members are not sorted: " + memberIds[n - 1] + " >= " + memberId);
+      }
+      names.add(name);
+      if (n == memberIds.length) {
+        memberIds = Arrays.copyOf(memberIds, n * 2);
+        memberLevels = Arrays.copyOf(memberLevels, n * 2);
+      }
+      memberIds[n] = memberId;
+      memberLevels[n] = level;
+      if (!sameName) {
+        distinctNames++;
+        lastName = name;
+      }
+      return this;
+    }
+
+    /**
+     * Add a synonym of a member.
+     * @param synonym tokens of the synonym
+     * @param memberId id of the member
+     * @return this builder
+     * @throws IllegalArgumentException if the member has not been added
+     */
+    public Builder synonym(final List<String> synonym, final int memberId) {
+      if (ranks == null) {
+        ranks = new long[names.size()];
+        for (int r = 0; r < ranks.length; r++) {
+          ranks[r] = (long) memberIds[r] << 32 | r;
+        }
+        Arrays.sort(ranks);
+      }
+      final int i = Arrays.binarySearch(ranks, (long) memberId << 32);
+      final int at = i >= 0 ? i : -i - 1;
+      if (at == ranks.length || (int) (ranks[at] >> 32) != memberId) {
+        throw new IllegalArgumentException("Unknown member: " + memberId);
+      }
+      final String term = String.join(" ", synonym);
+      if (!term.equals(lastTerm)) {
+        final int t = terms.size();
+        if (t == termHashes.length) {
+          termHashes = Arrays.copyOf(termHashes, t * 2);
+        }
+        termHashes[t] = term.hashCode();
+        terms.add(term);
+        grams.add(synonym, t);
+        lastTerm = term;
+      }
+      if (refs == refTerms.length) {
+        refTerms = Arrays.copyOf(refTerms, refs * 2);
+        refMembers = Arrays.copyOf(refMembers, refs * 2);
+      }
+      refTerms[refs] = terms.size() - 1;
+      refMembers[refs++] = (int) ranks[at];
+      return this;
+    }
+
+    /**
+     * @return the member store
+     */
+    public MemberStore build() {
+      return new MemberStore(this);
+    }
+  }
+
+  private MemberStore(final Builder b) {
+    levels = b.levels.toArray(new Level[0]);
+    names = b.names.build();
+    distinctNames = b.distinctNames;
+    memberIds = Arrays.copyOf(b.memberIds, names.size());
+    memberLevels = Arrays.copyOf(b.memberLevels, names.size());
+    entityIds = new int[names.size()];
+    terms = b.terms.build();
+    grams = b.grams;
+    // index the synonyms by hash, a synonym equal to a previous one (not adjacent) gives it its members
+    table = new int[Integer.highestOneBit(Math.max(1, terms.size()) * 2) * 2];
+    final int[] canonical = new int[terms.size()];
+    for (int t = 0; t < terms.size(); t++) {
+      canonical[t] = t;
+      for (int slot = slot(b.termHashes[t]);; slot = slot + 1 & table.length - 1) {
+        if (table[slot] == 0) {
+          table[slot] = t + 1;
+          break;
+        }
+        final int other = table[slot] - 1;
+        if (b.termHashes[other] == b.termHashes[t] && terms.get(other).equals(terms.get(t))) {
+          canonical[t] = other;
+          break;
+        }
+      }
+    }
+    // group the members by synonym (counting sort)
+    termOffsets = new int[terms.size() + 1];
+    for (int r = 0; r < b.refs; r++) {
+      termOffsets[canonical[b.refTerms[r]] + 1]++;
+    }
+    for (int t = 0; t < terms.size(); t++) {
+      termOffsets[t + 1] += termOffsets[t];
+    }
+    final int[] next = Arrays.copyOf(termOffsets, terms.size());
+    memberOfTerms = new int[b.refs];
+    for (int r = 0; r < b.refs; r++) {
+      memberOfTerms[next[canonical[b.refTerms[r]]]++] = b.refMembers[r];
+    }
+  }
+
+  /** @return the first slot of a hash in `table` */
+  private int slot(final int hash) {
+    return (hash ^ hash >>> 16) & table.length - 1;
+  }
+
+  /**
+   * @return number of synonyms
+   */
+  public int size() {
+    return terms.size();
+  }
+
+  /**
+   * @param id synonym index
+   * @return tokens of the synonym
+   */
+  public List<String> synonym(final int id) {
+    final String term = terms.get(id);
+    final ImmutableList.Builder<String> res = ImmutableList.builder();
+    for (int from = 0, to; from <= term.length(); from = to + 1) { // tokens were joined by a space
+      to = term.indexOf(' ', from);
+      to = to < 0 ? term.length() : to;
+      res.add(term.substring(from, to));
+    }
+    return res.build();
+  }
+
+  /**
+   * @param id synonym index
+   * @return members referred by the synonym (empty for a synonym equal to a previous one)
+   */
+  public List<Entity> entities(final int id) {
+    final ImmutableList.Builder<Entity> res = ImmutableList.builder();
+    for (int i = termOffsets[id]; i < termOffsets[id + 1]; i++) {
+      final int m = memberOfTerms[i];
+      if (entityIds[m] == 0) { // racing threads create the same canonical entity
+        final Level level = levels[memberLevels[m]];
+        // as in the database loader, the reference is the one of the synonym (i.e., the member itself)
+        entityIds[m] = Entity.of(memberIds[m], names.get(m), DBmanager.tabMEMBER, memberIds[m], level.name, level.type).id() + 1;
+      }
+      res.add(Entity.byId(entityIds[m] - 1));
+    }
+    return res.build();
+  }
+
+  /**
+   * @param tokens tokens of a synonym
+   * @return index of the synonym, or -1 if absent
+   */
+  public int indexOf(final List<String> tokens) {
+    final String term = String.join(" ", tokens);
+    for (int slot = slot(term.hashCode()); table[slot] != 0; slot = slot + 1 & table.length - 1) {
+      if (terms.get(table[slot] - 1).equals(term)) {
+        return table[slot] - 1;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * @param tokens ngram
+   * @param threshold min similarity
+   * @return indexes of the synonyms that can be similar to the ngram, they must be verified by the caller
+   */
+  public BitSet candidates(final List<String> tokens, final double threshold) {
+    final BitSet res = new BitSet();
+    grams.search(tokens, threshold, res);
+    return res;
+  }
+
+  /**
+   * @return a read-only map from each member name to its levels (see {@link QueryGeneratorChecker#getLevelsOfMembers()})
+   */
+  public Map<String, Set<Entity>> levelsOfMembers() {
+    return new LevelsOfMembers();
+  }
+
+  /** Map from member names to their levels, computed on demand. */
+  final class LevelsOfMembers extends AbstractMap<String, Set<Entity>> {
+    private Set<Entity> levelsFrom(final int first) {
+      final String name = names.get(first);
+      final Set<Entity> res = Sets.newLinkedHashSet();
+      for (int m = first; m < names.size() && names.get(m).equals(name); m++) {
+        res.add(levels[memberLevels[m]].entity);
+      }
+      return res;
+    }
+
+    @Override
+    public Set<Entity> get(final Object key) {
+      if (!(key instanceof String)) {
+        return null;
+      }
+      final int first = names.indexOf((String) key);
+      return first < 0 ? null : levelsFrom(first);
+    }
+
+    @Override
+    public boolean containsKey(final Object key) {
+      return key instanceof String && names.indexOf((String) key) >= 0;
+    }
+
+    @Override
+    public Set<Entry<String, Set<Entity>>> entrySet() {
+      return new AbstractSet<Entry<String, Set<Entity>>>() {
+        @Override
+        public Iterator<Entry<String, Set<Entity>>> iterator() {
+          return new Iterator<Entry<String, Set<Entity>>>() {
+            private int next = 0;
+
+            @Override
+            public boolean hasNext() {
+              return next < names.size();
+            }
+
+            @Override
+            public Entry<String, Set<Entity>> next() {
+              if (!hasNext()) {
+                throw new NoSuchElementException();
+              }
+              final String name = names.get(next);
+              final Set<Entity> value = levelsFrom(next);
+              do {
+                next++;
+              } while (next < names.size() && names.get(next).equals(name));
+              return new SimpleImmutableEntry<>(name, value);
+            }
+          };
+        }
+
+        @Override
+        public int size() {
+          return distinctNames;
+        }
+      };
+    }
+  }
+}
@@ -53,7 +53,7 @@ public final class QueryGeneratorChecker extends DBmanager {
     ) {
       res.first();
       final String name = res.getString(DBmanager.name(tabLEVEL));
-      return new Ngram(name, Type.ATTR, new Entity(m.mde().refToOtherTable(), name, res.getInt(id(tabTABLE)), Utils.getDataType(res.getString(type(tabLEVEL)))), null);
+      return new Ngram(name, Type.ATTR, Entity.of(m.mde().refToOtherTable(), name, res.getInt(id(tabTABLE)), Utils.getDataType(res.getString(type(tabLEVEL)))), null);
     } catch (SQLException e) {
       e.printStackTrace();
     }
@@ -96,7 +96,7 @@ public final class QueryGeneratorChecker extends DBmanager {
         final int id = res.getInt(id(tabGROUPBYOPERATOR));
         final String op = res.getString(name(tabGROUPBYOPERATOR));
         final Set<Entity> val = map.getOrDefault(mea, Sets.newLinkedHashSet());
-        val.add(new Entity(id, op));
+        val.add(Entity.of(id, op));
         map.put(mea, val);
       }
     } catch (final SQLException e) {
@@ -149,7 +149,7 @@ public final class QueryGeneratorChecker extends DBmanager {
       final Map<String, Set<Entity>> members = Maps.newLinkedHashMap();
       while (res.next()) {
         final Set<Entity> tmp = members.getOrDefault(res.getString(name(tabLEVEL)), Sets.newLinkedHashSet());
-        tmp.add(new Entity(res.getInt(id(tabMEMBER)), res.getString(name(tabMEMBER)), res.getInt(id(tabLEVEL)), Utils.getDataType(type(tabLEVEL))));
+        tmp.add(Entity.of(res.getInt(id(tabMEMBER)), res.getString(name(tabMEMBER)), res.getInt(id(tabLEVEL)), Utils.getDataType(type(tabLEVEL))));
         members.put(res.getString(name(tabLEVEL)), tmp);
       }
       return members;
@@ -162,9 +162,17 @@ public final class QueryGeneratorChecker extends DBmanager {
   /**
    * Returns the member of each level.
    * @return set members (i.e., entities) for each levels
+   * @throws IllegalStateException if the compact store of the members is enabled and it cannot be loaded
    */
   public static Map<String, Set<Entity>> getLevelsOfMembers() {
     final String query = "select * from member m, `level` a, `column` c, `table` t where c.table_id = t.table_id and a.column_id = c.column_id and m.level_id = a.level_id";
+    if (MemberStore.isEnabled()) { // compact map shared with the synonym dictionary, for very large dimensions
+      try {
+        return DBsynonyms.getMemberStore(DBsynonyms.loadWatermarks()).levelsOfMembers();
+      } catch (final SQLException e) { // the store is shared with the dictionary, it is not replaced by a partial map
+        throw new IllegalStateException("Cannot load the members", e);
+      }
+    }
     try (
         Statement stmt = getConnection().createStatement();
         ResultSet res = stmt.executeQuery(query);
@@ -172,7 +180,7 @@ public final class QueryGeneratorChecker extends DBmanager {
       final Map<String, Set<Entity>> attributes = Maps.newLinkedHashMap();
       while (res.next()) {
         final Set<Entity> tmp = attributes.getOrDefault(res.getString(name(tabMEMBER)), Sets.newLinkedHashSet());
-        tmp.add(new Entity(res.getInt(id(tabLEVEL)), res.getString(name(tabLEVEL)), res.getInt(id(tabTABLE)), Utils.getDataType(type(tabLEVEL))));
+        tmp.add(Entity.of(res.getInt(id(tabLEVEL)), res.getString(name(tabLEVEL)), res.getInt(id(tabTABLE)), Utils.getDataType(type(tabLEVEL))));
         attributes.put(res.getString(name(tabMEMBER)), tmp);
       }
       return attributes;
@@ -194,7 +202,7 @@ public final class QueryGeneratorChecker extends DBmanager {
     ) {
       final Set<Entity> attributes = Sets.newLinkedHashSet();
       while (res.next()) {
-        attributes.add(new Entity(res.getInt(id(tabLEVEL)), res.getString(name(tabLEVEL)), res.getInt(id(tabTABLE)), Utils.getDataType(type(tabLEVEL))));
+        attributes.add(Entity.of(res.getInt(id(tabLEVEL)), res.getString(name(tabLEVEL)), res.getInt(id(tabTABLE)), Utils.getDataType(type(tabLEVEL))));
       }
       return attributes;
     } catch (final SQLException e) {
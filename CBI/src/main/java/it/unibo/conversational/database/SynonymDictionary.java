@@ -0,0 +1,490 @@
+package it.unibo.conversational.database;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import it.unibo.conversational.algorithms.LevenshteinTrie;
+import it.unibo.conversational.algorithms.QGramIndex;
+import it.unibo.conversational.datatypes.Entity;
+
+/**
+ * Immutable snapshot of the synonyms and of their indexes.
+ * Synonyms are identified by their insertion order, which is also the order of a full scan.
+ * A snapshot is never modified after {@link Builder#build()}, so it can be shared by any number of threads without locking.
+ * New synonyms are added by {@link #with(Builder)}, which shares the indexes of the current snapshot and only indexes the new synonyms (i.e., a new segment).
+ * Member synonyms can be kept in a {@link MemberStore}, which takes the ids following the other synonyms of the initial load.
+ * The synonyms of the initial load can also be served from a memory mapped snapshot (see {@link DictionarySnapshot}).
+ */
+public final class SynonymDictionary {
+  /** Maximum number of segments, beyond it the segments are merged. */
+  private static final int MAX_SEGMENTS = 8;
+  private static final AtomicLong VERSIONS = new AtomicLong();
+  /** The synonym refers to members (see {@link #kinds(int)}). */
+  public static final int MEMBERS = 1;
+  /** The synonym refers to metadata, i.e., entities other than members (see {@link #kinds(int)}). */
+  public static final int METADATA = 2;
+
+  /** Version of the snapshot, each built snapshot has a different version. */
+  private final long version;
+  /** Number of synonyms. */
+  private final int size;
+  /** Consecutive ranges of ids, with their indexes. */
+  private final ImmutableList<Part> parts;
+
+  /** Synonyms in [offset, offset + size()). Ids in a part are relative to the offset. */
+  abstract static class Part {
+    protected final int offset;
+
+    Part(final int offset) {
+      this.offset = offset;
+    }
+
+    abstract int size();
+
+    abstract List<String> synonym(int id);
+
+    abstract List<Entity> entities(int id);
+
+    /** @return {@link SynonymDictionary#MEMBERS} and/or {@link SynonymDictionary#METADATA} */
+    abstract int kinds(int id);
+
+    /** @return id of the synonym, or -1 if absent */
+    abstract int id(List<String> tokens);
+
+    /** @return ids that can be similar to the tokens */
+    abstract BitSet candidates(List<String> tokens, double threshold);
+  }
+
+  /** Synonyms held as lists, indexed by a trie and by q-grams. */
+  private static final class Segment extends Part {
+    private final List<String>[] synonyms;
+    private final ImmutableList<Entity>[] entities;
+    /** Kinds of the entities of each synonym. */
+    private final byte[] kinds;
+    /** Synonym ids by tokens, used for the exact match. */
+    private final ImmutableMap<List<String>, Integer> ids;
+    /** Index over the single-token synonyms. */
+    private final LevenshteinTrie singleTokenSyns;
+    /** Q-gram index over the single-token synonyms, used by multi-token ngrams. */
+    private final QGramIndex singleTokenGrams;
+    /** Q-gram index over the multi-token synonyms. */
+    private final QGramIndex multiTokenGrams;
+
+    private Segment(final int offset, final List<String>[] synonyms, final ImmutableList<Entity>[] entities) {
+      super(offset);
+      this.synonyms = synonyms;
+      this.entities = entities;
+      this.kinds = kinds(entities);
+      singleTokenSyns = new LevenshteinTrie();
+      singleTokenGrams = new QGramIndex();
+      multiTokenGrams = new QGramIndex();
+      final ImmutableMap.Builder<List<String>, Integer> idsBuilder = ImmutableMap.builderWithExpectedSize(synonyms.length);
+      for (int id = 0; id < synonyms.length; id++) {
+        final List<String> synonym = synonyms[id];
+        idsBuilder.put(synonym, id);
+        if (synonym.size() == 1) {
+          singleTokenSyns.add(synonym.get(0), id);
+          singleTokenGrams.add(synonym, id);
+        } else {
+          multiTokenGrams.add(synonym, id);
+        }
+      }
+      ids = idsBuilder.build();
+    }
+
+    /** Same synonyms and indexes, different entities. */
+    private Segment(final Segment base, final ImmutableList<Entity>[] entities) {
+      super(base.offset);
+      this.synonyms = base.synonyms;
+      this.entities = entities;
+      this.kinds = kinds(entities);
+      this.ids = base.ids;
+      this.singleTokenSyns = base.singleTokenSyns;
+      this.singleTokenGrams = base.singleTokenGrams;
+      this.multiTokenGrams = base.multiTokenGrams;
+    }
+
+    @Override
+    int size() {
+      return synonyms.length;
+    }
+
+    @Override
+    List<String> synonym(final int id) {
+      return synonyms[id];
+    }
+
+    @Override
+    List<Entity> entities(final int id) {
+      return entities[id];
+    }
+
+    @Override
+    int kinds(final int id) {
+      return kinds[id];
+    }
+
+    private static byte[] kinds(final ImmutableList<Entity>[] entities) {
+      final byte[] res = new byte[entities.length];
+      for (int id = 0; id < entities.length; id++) {
+        for (final Entity e: entities[id]) {
+          res[id] |= e.table().equals(DBmanager.tabMEMBER) ? MEMBERS : METADATA;
+        }
+      }
+      return res;
+    }
+
+    @Override
+    int id(final List<String> tokens) {
+      return ids.getOrDefault(tokens, -1);
+    }
+
+    @Override
+    BitSet candidates(final List<String> tokens, final double threshold) {
+      final BitSet candidates = new BitSet();
+      if (tokens.size() == 1) {
+        singleTokenSyns.search(tokens.get(0), threshold, (id, distance) -> candidates.set(id));
+      } else {
+        singleTokenGrams.search(tokens, threshold, candidates);
+      }
+      multiTokenGrams.search(tokens, threshold, candidates);
+      return candidates;
+    }
+  }
+
+  /** Member synonyms in a {@link MemberStore}. */
+  private static final class Members extends Part {
+    private final MemberStore store;
+
+    private Members(final int offset, final MemberStore store) {
+      super(offset);
+      this.store = store;
+    }
+
+    @Override
+    int size() {
+      return store.size();
+    }
+
+    @Override
+    List<String> synonym(final int id) {
+      return store.synonym(id);
+    }
+
+    @Override
+    List<Entity> entities(final int id) {
+      return store.entities(id);
+    }
+
+    @Override
+    int kinds(final int id) {
+      return MEMBERS;
+    }
+
+    @Override
+    int id(final List<String> tokens) {
+      return store.indexOf(tokens);
+    }
+
+    @Override
+    BitSet candidates(final List<String> tokens, final double threshold) {
+      return store.candidates(tokens, threshold);
+    }
+  }
+
+  private SynonymDictionary(final ImmutableList<Part> parts) {
+    this.version = VERSIONS.incrementAndGet();
+    this.parts = parts;
+    final Part last = parts.get(parts.size() - 1);
+    this.size = last.offset + last.size();
+  }
+
+  /**
+   * @param n length
+   * @return an array of synonyms
+   */
+  @SuppressWarnings({ "unchecked", "rawtypes" })
+  private static List<String>[] newSynonyms(final int n) {
+    return new List[n];
+  }
+
+  /**
+   * @param n length
+   * @return an array of lists of entities
+   */
+  @SuppressWarnings({ "unchecked", "rawtypes" })
+  private static ImmutableList<Entity>[] newEntities(final int n) {
+    return new ImmutableList[n];
+  }
+
+  /**
+   * Create a segment, the map is emptied while copying.
+   * @param offset id of the first synonym
+   * @param syns synonyms and their entities
+   * @return the segment
+   */
+  private static Segment segment(final int offset, final Map<List<String>, List<Entity>> syns) {
+    final List<String>[] synonyms = newSynonyms(syns.size());
+    final ImmutableList<Entity>[] entities = newEntities(syns.size());
+    int id = 0;
+    final Iterator<Entry<List<String>, List<Entity>>> it = syns.entrySet().iterator();
+    while (it.hasNext()) { // drop each entry once copied, to avoid holding two copies of the synonyms
+      final Entry<List<String>, List<Entity>> entry = it.next();
+      synonyms[id] = ImmutableList.copyOf(entry.getKey());
+      entities[id++] = ImmutableList.copyOf(entry.getValue());
+      it.remove();
+    }
+    return new Segment(offset, synonyms, entities);
+  }
+
+  /**
+   * @param part synonyms, starting at id 0
+   * @return a dictionary with the given synonyms (e.g., the ones of a snapshot)
+   */
+  static SynonymDictionary of(final Part part) {
+    return new SynonymDictionary(ImmutableList.of(part));
+  }
+
+  /**
+   * @return a builder of a synonym dictionary
+   */
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /** Builder of a synonym dictionary, it is not thread safe. */
+  public static final class Builder {
+    private final Map<List<String>, List<Entity>> syns = Maps.newLinkedHashMap();
+    private MemberStore members;
+
+    private Builder() {
+    }
+
+    /**
+     * Add a synonym of an entity.
+     * @param synonym tokens of the synonym
+     * @param entity entity
+     * @return this builder
+     */
+    public Builder add(final List<String> synonym, final Entity entity) {
+      syns.computeIfAbsent(synonym, k -> Lists.newArrayList()).add(entity);
+      return this;
+    }
+
+    /**
+     * Move the synonyms of another builder into this one, in their insertion order. The other builder is left empty.
+     * @param other builder to drain
+     * @return this builder
+     */
+    public Builder drain(final Builder other) {
+      final Iterator<Entry<List<String>, List<Entity>>> it = other.syns.entrySet().iterator();
+      while (it.hasNext()) {
+        final Entry<List<String>, List<Entity>> entry = it.next();
+        final List<Entity> entities = syns.putIfAbsent(entry.getKey(), entry.getValue());
+        if (entities != null) {
+          entities.addAll(entry.getValue());
+        }
+        it.remove();
+      }
+      return this;
+    }
+
+    /**
+     * Keep the member synonyms in a compact store, only used by {@link #build()}.
+     * @param members member store
+     * @return this builder
+     */
+    public Builder members(final MemberStore members) {
+      this.members = members;
+      return this;
+    }
+
+    /**
+     * @return the added synonyms
+     */
+    public Set<List<String>> synonyms() {
+      return ImmutableSet.copyOf(syns.keySet());
+    }
+
+    /**
+     * Build the dictionary, the builder is left empty.
+     * @return the immutable dictionary
+     */
+    public SynonymDictionary build() {
+      final Segment segment = segment(0, syns);
+      return new SynonymDictionary(members == null ? ImmutableList.of(segment) : ImmutableList.of(segment, new Members(segment.size(), members)));
+    }
+  }
+
+  /**
+   * Create a new snapshot with the synonyms of this snapshot and the given ones.
+   * New synonyms are appended (i.e., they get the next ids), the entities of existing synonyms are extended
+   * (synonyms in a {@link MemberStore} or in a snapshot cannot be extended, so they are added again as new synonyms).
+   * Only the new synonyms are indexed; beyond {@link #MAX_SEGMENTS} segments, consecutive segments are merged (ids do not change).
+   * @param additions synonyms to add
+   * @return the new snapshot
+   */
+  public SynonymDictionary with(final Builder additions) {
+    final Map<List<String>, List<Entity>> newSyns = Maps.newLinkedHashMap();
+    final List<ImmutableList<Entity>[]> extended = Lists.newArrayList(Collections.nCopies(parts.size(), null));
+    for (final Entry<List<String>, List<Entity>> entry: additions.syns.entrySet()) {
+      boolean found = false;
+      for (int p = 0; p < parts.size() && !found; p++) {
+        if (parts.get(p) instanceof Segment) {
+          final Segment s = (Segment) parts.get(p);
+          final int id = s.id(entry.getKey());
+          if (id >= 0) {
+            if (extended.get(p) == null) {
+              extended.set(p, Arrays.copyOf(s.entities, s.entities.length));
+            }
+            extended.get(p)[id] = ImmutableList.<Entity>builder().addAll(extended.get(p)[id]).addAll(entry.getValue()).build();
+            found = true;
+          }
+        }
+      }
+      if (!found) {
+        newSyns.put(entry.getKey(), entry.getValue());
+      }
+    }
+    final List<Part> newParts = Lists.newArrayList();
+    for (int p = 0; p < parts.size(); p++) {
+      newParts.add(extended.get(p) == null ? parts.get(p) : new Segment((Segment) parts.get(p), extended.get(p)));
+    }
+    if (!newSyns.isEmpty()) {
+      newParts.add(segment(size, newSyns));
+    }
+    return new SynonymDictionary(newParts.stream().filter(p -> p instanceof Segment).count() > MAX_SEGMENTS ? merge(newParts) : ImmutableList.copyOf(newParts));
+  }
+
+  /**
+   * Merge the consecutive segments, the ids do not change.
+   * @param parts parts
+   * @return the merged parts
+   */
+  private static ImmutableList<Part> merge(final List<Part> parts) {
+    final ImmutableList.Builder<Part> res = ImmutableList.builder();
+    final List<Segment> run = Lists.newArrayList();
+    for (final Part p: parts) {
+      if (p instanceof Segment) {
+        run.add((Segment) p);
+      } else {
+        res.addAll(mergeRun(run));
+        run.clear();
+        res.add(p);
+      }
+    }
+    return res.addAll(mergeRun(run)).build();
+  }
+
+  private static List<Segment> mergeRun(final List<Segment> run) {
+    if (run.size() <= 1) {
+      return ImmutableList.copyOf(run);
+    }
+    final int n = run.stream().mapToInt(Segment::size).sum();
+    final List<String>[] synonyms = newSynonyms(n);
+    final ImmutableList<Entity>[] entities = newEntities(n);
+    int id = 0;
+    for (final Segment s: run) {
+      System.arraycopy(s.synonyms, 0, synonyms, id, s.size());
+      System.arraycopy(s.entities, 0, entities, id, s.size());
+      id += s.size();
+    }
+    return ImmutableList.of(new Segment(run.get(0).offset, synonyms, entities));
+  }
+
+  /**
+   * @return version of the snapshot
+   */
+  public long version() {
+    return version;
+  }
+
+  /**
+   * @return number of synonyms
+   */
+  public int size() {
+    return size;
+  }
+
+  private Part part(final int id) {
+    for (final Part p: parts) {
+      if (id < p.offset + p.size()) {
+        return p;
+      }
+    }
+    throw new IndexOutOfBoundsException("Id: " + id + ", size: " + size);
+  }
+
+  /**
+   * @param id synonym id
+   * @return tokens of the synonym
+   */
+  public List<String> synonym(final int id) {
+    final Part p = part(id);
+    return p.synonym(id - p.offset);
+  }
+
+  /**
+   * @param id synonym id
+   * @return entities referred by the synonym
+   */
+  public List<Entity> entities(final int id) {
+    final Part p = part(id);
+    return p.entities(id - p.offset);
+  }
+
+  /**
+   * @param id synonym id
+   * @return kinds of the entities referred by the synonym ({@link #MEMBERS} and/or {@link #METADATA}), known without creating the entities
+   */
+  public int kinds(final int id) {
+    final Part p = part(id);
+    return p.kinds(id - p.offset);
+  }
+
+  /**
+   * @param tokens ngram
+   * @return entities whose synonym is exactly the ngram (empty if none)
+   */
+  public List<Entity> exact(final List<String> tokens) {
+    List<Entity> res = ImmutableList.of();
+    for (final Part p: parts) {
+      final int id = p.id(tokens);
+      if (id >= 0) {
+        res = res.isEmpty() ? p.entities(id) : ImmutableList.<Entity>builder().addAll(res).addAll(p.entities(id)).build();
+      }
+    }
+    return res;
+  }
+
+  /**
+   * Get the ids of the synonyms that can be similar to the given tokens.
+   * Single-token ngrams visit the trie of the single-token synonyms, everything else goes through the q-gram filters.
+   * @param tokens ngram
+   * @param threshold min similarity
+   * @return candidate ids, sorted by id
+   */
+  public BitSet candidates(final List<String> tokens, final double threshold) {
+    final BitSet candidates = new BitSet(size);
+    for (final Part p: parts) {
+      final BitSet local = p.candidates(tokens, threshold);
+      for (int id = local.nextSetBit(0); id >= 0; id = local.nextSetBit(id + 1)) {
+        candidates.set(p.offset + id);
+      }
+    }
+    return candidates;
+  }
+}
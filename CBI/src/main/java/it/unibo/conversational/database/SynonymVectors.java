@@ -0,0 +1,194 @@
+package it.unibo.conversational.database;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.Maps;
+
+import it.unibo.conversational.algorithms.Hnsw;
+
+/**
+ * Vectors of terms computed offline (e.g., word embeddings), used to retrieve the synonyms of an ngram by semantic similarity.
+ * The file set by the system property {@value #PROPERTY} has one term per line: the term, a tab and the space-separated components
+ * (lines without tabs are in the GloVe format, i.e., a single-token term followed by the components; a word2vec header is skipped).
+ * The vector of a list of tokens is the vector of the whole term, if any, otherwise the normalized mean of the vectors of its tokens.
+ * The synonyms of a dictionary are indexed by a {@link Hnsw} graph, whose neighbours must be verified by the caller.
+ */
+public final class SynonymVectors {
+  private static final Logger L = LoggerFactory.getLogger(SynonymVectors.class);
+  /** System property with the path of the vectors. */
+  public static final String PROPERTY = "conversational.vectors";
+  /** Max neighbours of a node in the graph. */
+  private static final int M = 16;
+  /** Candidates kept while building the graph. */
+  private static final int EF_CONSTRUCTION = 100;
+  /** Min candidates kept while searching the graph. */
+  private static final int EF_SEARCH = 64;
+
+  /** Vectors of the terms, normalized. */
+  private final Map<String, float[]> vectors;
+  private final int dim;
+
+  /** The vectors of the current run, loaded on first use. */
+  private static final class Holder {
+    private static final SynonymVectors VECTORS = load(System.getProperty(PROPERTY));
+  }
+
+  private SynonymVectors(final Map<String, float[]> vectors, final int dim) {
+    this.vectors = vectors;
+    this.dim = dim;
+  }
+
+  /**
+   * @return true if the vectors are enabled
+   */
+  public static boolean isEnabled() {
+    return System.getProperty(PROPERTY) != null;
+  }
+
+  /**
+   * @return the vectors set by {@value #PROPERTY}
+   */
+  public static SynonymVectors get() {
+    return Holder.VECTORS;
+  }
+
+  private static SynonymVectors load(final String path) {
+    final long startTime = System.currentTimeMillis();
+    final Map<String, float[]> vectors = Maps.newHashMap();
+    int dim = -1;
+    try (BufferedReader br = Files.newBufferedReader(Paths.get(path), StandardCharsets.UTF_8)) {
+      String line;
+      boolean first = true;
+      while ((line = br.readLine()) != null) {
+        final int tab = line.indexOf('\t');
+        final String term = tab >= 0 ? line.substring(0, tab) : line.substring(0, Math.max(line.indexOf(' '), 0));
+        final String[] components = line.substring(tab >= 0 ? tab + 1 : term.length()).trim().split(" +");
+        if (first && tab < 0 && components.length == 1) { // word2vec header (count and dimension)
+          first = false;
+          continue;
+        }
+        first = false;
+        if (dim < 0) {
+          dim = components.length;
+        } else if (components.length != dim) {
+          throw new IllegalArgumentException("Expected " + dim + " components for " + term + ", found " + components.length);
+        }
+        final float[] v = new float[dim];
+        for (int i = 0; i < dim; i++) {
+          v[i] = Float.parseFloat(components[i]);
+        }
+        vectors.put(term, normalize(v));
+      }
+    } catch (final IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    L.info("Loaded " + vectors.size() + " vectors in " + (System.currentTimeMillis() - startTime) + "ms");
+    return new SynonymVectors(vectors, Math.max(dim, 0));
+  }
+
+  private static float[] normalize(final float[] v) {
+    double norm = 0;
+    for (final float c: v) {
+      norm += c * c;
+    }
+    norm = Math.sqrt(norm);
+    if (norm > 0) {
+      for (int i = 0; i < v.length; i++) {
+        v[i] /= norm;
+      }
+    }
+    return v;
+  }
+
+  private float[] lookup(final String term) {
+    final float[] v = vectors.get(term);
+    return v != null ? v : vectors.get(term.toLowerCase());
+  }
+
+  /**
+   * @param tokens list of tokens
+   * @return the unit vector of the tokens, null if none of them has a vector
+   */
+  public float[] vector(final List<String> tokens) {
+    final float[] whole = lookup(String.join(" ", tokens));
+    if (whole != null) {
+      return whole;
+    }
+    final float[] res = new float[dim];
+    boolean found = false;
+    for (final String t: tokens) {
+      final float[] v = lookup(t);
+      if (v != null) {
+        found = true;
+        for (int i = 0; i < dim; i++) {
+          res[i] += v[i];
+        }
+      }
+    }
+    return found ? normalize(res) : null;
+  }
+
+  /**
+   * Index the synonyms of a dictionary.
+   * @param syns dictionary
+   * @return the index of the synonyms that have a vector
+   */
+  public Index index(final SynonymDictionary syns) {
+    final long startTime = System.currentTimeMillis();
+    final Hnsw graph = new Hnsw(dim, M, EF_CONSTRUCTION, syns.size());
+    for (int id = 0; id < syns.size(); id++) {
+      final float[] v = vector(syns.synonym(id));
+      if (v != null) {
+        graph.add(id, v);
+      }
+    }
+    L.info("Indexed " + graph.size() + " of " + syns.size() + " synonyms in " + (System.currentTimeMillis() - startTime) + "ms");
+    return new Index(syns.version(), graph);
+  }
+
+  /** Index of the synonyms of a dictionary. It is immutable. */
+  public final class Index {
+    private final long version;
+    private final Hnsw graph;
+
+    private Index(final long version, final Hnsw graph) {
+      this.version = version;
+      this.graph = graph;
+    }
+
+    /**
+     * @return version of the indexed dictionary
+     */
+    public long version() {
+      return version;
+    }
+
+    /**
+     * @param tokens ngram
+     * @param k number of neighbours
+     * @return ids of the (approximately) `k` synonyms most similar to the ngram, or null if the ngram has no vector
+     */
+    public BitSet candidates(final List<String> tokens, final int k) {
+      final float[] q = vector(tokens);
+      if (q == null) {
+        return null;
+      }
+      final BitSet res = new BitSet();
+      for (final int id: graph.search(q, k, Math.max(EF_SEARCH, k))) {
+        res.set(id);
+      }
+      return res;
+    }
+  }
+}
@@ -1,92 +1,173 @@
 package it.unibo.conversational.datatypes;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Objects;
-import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
 
 import it.unibo.conversational.Utils.DataType;
 
-/** A reference to an element in the DW. */
-public class Entity {
+/**
+ * A reference to an element in the DW.
+ * An element of a table (i.e., an entity with both a table and a primary key) has a canonical instance per (table, primary key),
+ * which has a dense int id (see {@link #id()}) that parsers and caches can hold instead of the entity (see {@link #byId(int)}).
+ * If an element is created again with different values (e.g., a renamed member), the new values replace the canonical instance
+ * and keep its id. Other entities (e.g., literals) are plain values and are not interned.
+ * Equality is on the values, canonical instances are compared by identity first.
+ */
+public final class Entity {
+  /** Value of a missing int field. */
+  private static final int NONE = Integer.MIN_VALUE;
+  /** Canonical elements by table and primary key. Canonical elements are never released. */
+  private static final Map<String, Map<Integer, Entity>> CANONICAL = new ConcurrentHashMap<>();
+  /** Canonical elements by id, written under the class lock. */
+  private static volatile Entity[] byId = new Entity[64];
+  /** Number of ids, guarded by the class lock. */
+  private static int ids;
+
+  /** Id of the element, -1 if the entity is not an element of a table. */
+  private final int id;
   /** Primary key of the element in its table. */
-  private final Optional<Integer> pkInTable;
+  private final int pkInTable;
   /** Name of the element. */
   private final String nameInTable;
   /** Reference to other table. A member refers to the corresponding level. A level refers to the corresponding table. */
-  private final Optional<Integer> refToOtherTable;
+  private final int refToOtherTable;
   /** Name of the reference in the other table. */
-  private final Optional<String> nameOtherTable;
+  private final String nameOtherTable;
   /** Type of the entity in the database. */
-  private final Optional<DataType> typeInDB;
+  private final DataType typeInDB;
   /** Table of the element. */
-  private final Optional<String> tableName;
+  private final String tableName;
+  private final int hash;
 
-  public Entity(final String nameInTable) {
-    this(Optional.empty(), nameInTable, Optional.empty(), Optional.empty(), Optional.empty(), Optional.empty());
+  private Entity(final int id, final int pkInTable, final String nameInTable, final int refToOtherTable, final String nameOtherTable, final DataType typeInDB, final String tableName) {
+    this.id = id;
+    this.pkInTable = pkInTable;
+    this.nameInTable = Objects.requireNonNull(nameInTable);
+    this.refToOtherTable = refToOtherTable;
+    this.nameOtherTable = nameOtherTable;
+    this.typeInDB = typeInDB;
+    this.tableName = tableName;
+    // as the hash of the optional fields, so that hashed collections iterate in the same order
+    this.hash = Objects.hash(pkInTable == NONE ? null : pkInTable, nameInTable, refToOtherTable == NONE ? null : refToOtherTable, nameOtherTable, typeInDB, tableName);
+  }
+
+  private boolean hasValues(final int pk, final String name, final int ref, final String nameOther, final DataType type, final String table) {
+    return pkInTable == pk
+        && refToOtherTable == ref
+        && typeInDB == type
+        && nameInTable.equals(name)
+        && Objects.equals(nameOtherTable, nameOther)
+        && Objects.equals(tableName, table);
+  }
+
+  /**
+   * @param pkInTable primary key of the element in its table (null if none)
+   * @param nameInTable name of the element
+   * @param refToOtherTable reference to other table (null if none)
+   * @param nameOtherTable name of the reference in the other table (null if none)
+   * @param typeInDB type of the entity in the database (null if none)
+   * @param tableName table of the element (null if none)
+   * @return the entity, the canonical one if it has both a table and a primary key
+   */
+  public static Entity of(final Integer pkInTable, final String nameInTable, final Integer refToOtherTable, final String nameOtherTable, final DataType typeInDB, final String tableName) {
+    final int pk = pkInTable == null ? NONE : pkInTable;
+    final int ref = refToOtherTable == null ? NONE : refToOtherTable;
+    if (tableName == null || pk == NONE) {
+      return new Entity(-1, pk, nameInTable, ref, nameOtherTable, typeInDB, tableName);
+    }
+    final Map<Integer, Entity> byPk = CANONICAL.computeIfAbsent(tableName, t -> new ConcurrentHashMap<>());
+    final Entity e = byPk.get(pk);
+    if (e != null && e.hasValues(pk, nameInTable, ref, nameOtherTable, typeInDB, tableName)) {
+      return e;
+    }
+    synchronized (Entity.class) {
+      final Entity old = byPk.get(pk);
+      if (old != null && old.hasValues(pk, nameInTable, ref, nameOtherTable, typeInDB, tableName)) {
+        return old;
+      }
+      final Entity res = new Entity(old == null ? ids++ : old.id, pk, nameInTable, ref, nameOtherTable, typeInDB, tableName);
+      if (res.id == byId.length) {
+        byId = Arrays.copyOf(byId, byId.length * 2);
+      }
+      byId[res.id] = res;
+      byPk.put(pk, res);
+      return res;
+    }
   }
 
-  public Entity(final String nameInTable, final DataType typeInDB) {
-    this(Optional.empty(), nameInTable, Optional.empty(), Optional.empty(), Optional.of(typeInDB), Optional.empty());
+  public static Entity of(final String nameInTable) {
+    return of(null, nameInTable, null, null, null, null);
   }
 
-  public Entity(final int pkInTable, final String nameInTable, final DataType typeInDB) {
-    this(Optional.of(pkInTable), nameInTable, Optional.empty(), Optional.empty(), Optional.of(typeInDB), Optional.empty());
+  public static Entity of(final String nameInTable, final DataType typeInDB) {
+    return of(null, nameInTable, null, null, typeInDB, null);
   }
 
-  public Entity(final int pkInTable, final String nameInTable, final int refToOtherTable, final DataType typeInDB) {
-    this(Optional.of(pkInTable), nameInTable, Optional.of(refToOtherTable), Optional.empty(), Optional.of(typeInDB), Optional.empty());
+  public static Entity of(final int pkInTable, final String nameInTable) {
+    return of(pkInTable, nameInTable, null, null, null, null);
   }
 
-  public Entity(final int pkInTable, final String nameInTable, final Optional<Integer> idref,  final Optional<String> nameref, final String table_name, final DataType type) {
-    this(Optional.of(pkInTable), nameInTable, idref, nameref, Optional.of(type), Optional.of(table_name));
+  public static Entity of(final int pkInTable, final String nameInTable, final int refToOtherTable, final DataType typeInDB) {
+    return of(pkInTable, nameInTable, refToOtherTable, null, typeInDB, null);
   }
 
-  public Entity(final Integer pkInTable, final String nameInTable) {
-    this(Optional.of(pkInTable), nameInTable, Optional.empty(), Optional.empty(), Optional.empty(), Optional.empty());
+  public static Entity of(final int pkInTable, final String nameInTable, final String tableName) {
+    return of(pkInTable, nameInTable, null, null, null, tableName);
   }
 
-  public Entity(final Integer pkInTable, final String nameInTable, final String tableName) {
-    this(Optional.of(pkInTable), nameInTable, Optional.empty(), Optional.empty(), Optional.empty(), Optional.of(tableName));
-  }
-  
-  public Entity(final Integer pkInTable, final String nameInTable, final Integer refToOtherTable) {
-    this(Optional.of(pkInTable), nameInTable, Optional.of(refToOtherTable), Optional.empty(), Optional.empty(), Optional.empty());
+  public static Entity of(final int pkInTable, final String nameInTable, final String tableName, final int refToOtherTable, final String otherTable, final DataType dataType) {
+    return of(pkInTable, nameInTable, refToOtherTable, otherTable, dataType, tableName);
   }
 
-  public Entity(final Optional<Integer> pkInTable, final String nameInTable, final Optional<Integer> refToOtherTable,
-      final Optional<String> nameInOtherTable, final Optional<DataType> typeInDB, final Optional<String> tableName) {
-    this.pkInTable = pkInTable;
-    this.nameInTable = nameInTable;
-    this.refToOtherTable = refToOtherTable;
-    this.nameOtherTable = nameInOtherTable;
-    this.typeInDB = typeInDB;
-    this.tableName = tableName;
+  /**
+   * @param id id of an element (see {@link #id()})
+   * @return the canonical element with the given id, i.e., the one with the latest values of its table and primary key
+   */
+  public static Entity byId(final int id) {
+    final Entity[] entities = byId;
+    if (id >= 0 && id < entities.length && entities[id] != null) {
+      return entities[id];
+    }
+    synchronized (Entity.class) { // the id may have been read before the entity is visible
+      if (id >= 0 && id < ids) {
+        return byId[id];
+      }
+    }
+    throw new NoSuchElementException("No entity with id " + id);
   }
 
-  public Entity(int pkInTable, String nameInTable, String tableName, int refToOtherTable, final String otherTable,  DataType dataType) {
-    this(Optional.of(pkInTable), nameInTable, Optional.of(refToOtherTable), Optional.of(otherTable), Optional.of(dataType), Optional.of(tableName));
+  /**
+   * @return the dense id of the element (the same for all the values of its table and primary key), -1 if the entity is not an element of a table
+   */
+  public int id() {
+    return id;
   }
 
   @Override
   public boolean equals(final Object obj) {
+    if (this == obj) {
+      return true;
+    }
     if (obj instanceof Entity) {
       final Entity o = (Entity) obj;
-      return pkInTable.equals(o.pkInTable)
-          && nameInTable.equals(o.nameInTable)
-          && refToOtherTable.equals(o.refToOtherTable)
-          && nameOtherTable.equals(o.nameOtherTable)
-          && typeInDB.equals(o.typeInDB)
-          && tableName.equals(o.tableName);
+      return hash == o.hash && id == o.id && o.hasValues(pkInTable, nameInTable, refToOtherTable, nameOtherTable, typeInDB, tableName);
     }
     return false;
   }
 
-  public DataType getTypeInDB() {
-    return typeInDB.orElse(DataType.OTHER);
-  }
-
   @Override
   public int hashCode() {
-    return Objects.hash(pkInTable, nameInTable, refToOtherTable, nameOtherTable, typeInDB, tableName);
+    return hash;
+  }
+
+  public DataType getTypeInDB() {
+    return typeInDB == null ? DataType.OTHER : typeInDB;
   }
 
   public String nameInTable() {
@@ -94,16 +175,73 @@ public class Entity {
   }
 
   public int pkInTable() {
-    return pkInTable.get();
+    if (pkInTable == NONE) {
+      throw new NoSuchElementException("No value present");
+    }
+    return pkInTable;
   }
 
   public int refToOtherTable() {
-    return refToOtherTable.get();
+    if (refToOtherTable == NONE) {
+      throw new NoSuchElementException("No value present");
+    }
+    return refToOtherTable;
   }
 
+  public String nameOtherTable() {
+    if (nameOtherTable == null) {
+      throw new NoSuchElementException("No value present");
+    }
+    return nameOtherTable;
+  }
 
   public String table() {
-    return tableName.get();
+    if (tableName == null) {
+      throw new NoSuchElementException("No value present");
+    }
+    return tableName;
+  }
+
+  /**
+   * Write the entity in binary format.
+   * @param out output
+   * @throws IOException in case of error
+   */
+  public void write(final DataOutput out) throws IOException {
+    out.writeByte((pkInTable != NONE ? 1 : 0) | (refToOtherTable != NONE ? 2 : 0) | (nameOtherTable != null ? 4 : 0) | (typeInDB != null ? 8 : 0) | (tableName != null ? 16 : 0));
+    out.writeUTF(nameInTable);
+    if (pkInTable != NONE) {
+      out.writeInt(pkInTable);
+    }
+    if (refToOtherTable != NONE) {
+      out.writeInt(refToOtherTable);
+    }
+    if (nameOtherTable != null) {
+      out.writeUTF(nameOtherTable);
+    }
+    if (typeInDB != null) {
+      out.writeByte(typeInDB.ordinal());
+    }
+    if (tableName != null) {
+      out.writeUTF(tableName);
+    }
+  }
+
+  /**
+   * Read an entity written by {@link #write(DataOutput)}.
+   * @param in input
+   * @return the entity
+   * @throws IOException in case of error
+   */
+  public static Entity read(final DataInput in) throws IOException {
+    final int flags = in.readByte();
+    final String name = in.readUTF();
+    final Integer pk = (flags & 1) != 0 ? in.readInt() : null;
+    final Integer ref = (flags & 2) != 0 ? in.readInt() : null;
+    final String nameOther = (flags & 4) != 0 ? in.readUTF() : null;
+    final DataType type = (flags & 8) != 0 ? DataType.values()[in.readByte()] : null;
+    final String table = (flags & 16) != 0 ? in.readUTF() : null;
+    return of(pk, name, ref, nameOther, type, table);
   }
 
   @Override
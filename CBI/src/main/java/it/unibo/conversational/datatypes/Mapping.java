@@ -35,7 +35,7 @@ public final class Mapping {
 
   /**
    * Create a mapping.
-   * @param ngrams a list of ngrams
+   * @param ngrams a list of ngrams (an immutable list is shared, not copied)
    */
   public Mapping(final List<Ngram> ngrams) {
     this.ngrams = ImmutableList.copyOf(ngrams);
@@ -162,7 +162,7 @@ public final class Mapping {
       });
     final List<Ngram> bin = 
         tokens.entrySet().stream()
-          .map(e -> new Ngram(e.getValue(), Type.BIN, new Entity(e.getValue()), Pair.of(e.getKey(), e.getKey())))
+          .map(e -> new Ngram(e.getValue(), Type.BIN, Entity.of(e.getValue()), Pair.of(e.getKey(), e.getKey())))
           .sorted(Ngram::compareNgrams)
           .collect(Collectors.toList());
     ngrams.addAll(bin);
@@ -0,0 +1,115 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+import it.unibo.conversational.Utils;
+import it.unibo.conversational.Utils.DataType;
+import it.unibo.conversational.database.Catalog;
+import it.unibo.conversational.database.DBmanager;
+import it.unibo.conversational.database.DictionarySnapshot;
+import it.unibo.conversational.database.SynonymDictionary;
+import it.unibo.conversational.datatypes.Entity;
+
+/**
+ * Test the lookups served from a written snapshot against the dictionary and the catalog it was written from.
+ */
+public class DictionarySnapshotRoundTrip {
+  private static String word(final Random r) {
+    final StringBuilder sb = new StringBuilder();
+    for (int i = 1 + r.nextInt(6); i > 0; i--) {
+      sb.append("abcdeé中".charAt(r.nextInt(7)));
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Random synonyms of members and levels: synonyms, entities, kinds, exact matches, candidates and catalog are the same.
+   * @throws Exception in case of error
+   */
+  @Test
+  public void testRandomDictionary() throws Exception {
+    final Random r = new Random(3);
+    final List<Entity> levels = Lists.newArrayList();
+    for (int l = 0; l < 5; l++) {
+      levels.add(Entity.of(7000 + l, "level" + l, DBmanager.tabLEVEL, 1, "table", DataType.STRING));
+    }
+    final SynonymDictionary.Builder builder = SynonymDictionary.builder();
+    final Map<String, Set<Entity>> levelsOfMembers = Maps.newHashMap();
+    for (int m = 0; m < 2000; m++) {
+      final Entity level = levels.get(r.nextInt(levels.size()));
+      final Entity member = Entity.of(9000 + m, word(r), DBmanager.tabMEMBER, level.pkInTable(), level.nameInTable(), DataType.STRING);
+      levelsOfMembers.computeIfAbsent(member.nameInTable(), k -> Sets.newHashSet()).add(level);
+      for (int s = r.nextInt(3); s > 0; s--) {
+        final List<String> tokens = Lists.newArrayList();
+        for (int t = 1 + r.nextInt(3); t > 0; t--) {
+          tokens.add(word(r));
+        }
+        builder.add(tokens, member);
+        if (r.nextInt(10) == 0) { // synonyms shared by members and metadata
+          builder.add(tokens, level);
+        }
+      }
+    }
+    final SynonymDictionary heap = builder.build();
+    final Catalog catalog = new Catalog(ImmutableMap.of("m", ImmutableSet.of(Entity.of(1, "sum", "groupbyoperator"))),
+        ImmutableMap.of("level0", ImmutableSet.of(levels.get(1))), levelsOfMembers, ImmutableSet.of(levels.get(2)));
+    final Map<String, int[]> version = ImmutableMap.of(DBmanager.tabSYNONYM, new int[] {heap.size(), heap.size()});
+    final Path file = Files.createTempFile("snapshot", ".bin");
+    file.toFile().deleteOnExit();
+    DictionarySnapshot.write(file, heap, catalog, version);
+    System.setProperty(DictionarySnapshot.PROPERTY, file.toString());
+    try {
+      assertFalse(DictionarySnapshot.readDictionary(ImmutableMap.of(DBmanager.tabSYNONYM, new int[] {0, 0})).isPresent());
+      final SynonymDictionary mapped = DictionarySnapshot.readDictionary(version).get();
+      assertEquals(heap.size(), mapped.size());
+      for (int id = 0; id < heap.size(); id++) {
+        assertEquals(heap.synonym(id), mapped.synonym(id));
+        assertEquals(heap.entities(id), mapped.entities(id));
+        assertEquals(heap.kinds(id), mapped.kinds(id));
+        assertEquals(heap.exact(heap.synonym(id)), mapped.exact(heap.synonym(id)));
+      }
+      assertTrue(mapped.exact(Lists.newArrayList("absent")).isEmpty());
+      for (int i = 0; i < 200; i++) {
+        final List<String> tokens = Lists.newArrayList(heap.synonym(r.nextInt(heap.size())));
+        tokens.set(0, word(r));
+        for (final double thr: new double[] {0.5, 0.8}) {
+          final BitSet candidates = mapped.candidates(tokens, thr);
+          for (int id = 0; id < heap.size(); id++) {
+            if (Utils.tokenSimilarity(tokens, heap.synonym(id)) >= thr) {
+              assertTrue(tokens + " " + heap.synonym(id), candidates.get(id));
+            }
+          }
+        }
+      }
+      final Catalog read = DictionarySnapshot.readCatalog().get();
+      assertEquals(catalog.operatorOfMeasure(), read.operatorOfMeasure());
+      assertEquals(catalog.membersOfLevels(), read.membersOfLevels());
+      assertEquals(catalog.yearLevels(), read.yearLevels());
+      assertEquals(levelsOfMembers, Maps.newHashMap(read.levelsOfMembers()));
+      for (final String name: levelsOfMembers.keySet()) {
+        assertEquals(levelsOfMembers.get(name), read.levelsOfMembers().get(name));
+      }
+      assertEquals(null, read.levelsOfMembers().get("absent"));
+    } finally {
+      System.clearProperty(DictionarySnapshot.PROPERTY);
+    }
+  }
+}
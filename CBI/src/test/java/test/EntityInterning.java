@@ -0,0 +1,64 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Random;
+
+import org.junit.Test;
+
+import it.unibo.conversational.Utils.DataType;
+import it.unibo.conversational.datatypes.Entity;
+
+/**
+ * Test the interning of the entities by table and primary key.
+ */
+public class EntityInterning {
+
+  /** @return the hash of the entity as the one of its optional fields */
+  private static int hash(final Integer pk, final String name, final Integer ref, final String nameOther, final DataType type, final String table) {
+    return Objects.hash(Optional.ofNullable(pk), name, Optional.ofNullable(ref), Optional.ofNullable(nameOther), Optional.ofNullable(type), Optional.ofNullable(table));
+  }
+
+  /**
+   * Random entities, the hash is the one of the optional fields and the elements of a table are canonical by primary key.
+   */
+  @Test
+  public void testRandomEntities() {
+    final Random r = new Random(0);
+    for (int i = 0; i < 10000; i++) {
+      final Integer pk = r.nextBoolean() ? r.nextInt(100) : null;
+      final String name = "e" + r.nextInt(3);
+      final Integer ref = r.nextBoolean() ? r.nextInt(3) : null;
+      final String nameOther = r.nextBoolean() ? "level" : null;
+      final DataType type = r.nextBoolean() ? DataType.values()[r.nextInt(DataType.values().length)] : null;
+      final String table = r.nextBoolean() ? "interning" + r.nextInt(2) : null;
+      final Entity e = Entity.of(pk, name, ref, nameOther, type, table);
+      final Entity f = Entity.of(pk, name, ref, nameOther, type, table);
+      assertEquals(hash(pk, name, ref, nameOther, type, table), e.hashCode());
+      assertEquals(e, f);
+      if (pk != null && table != null) {
+        assertSame(e, f);
+        assertSame(e, Entity.byId(e.id()));
+      } else {
+        assertEquals(-1, e.id());
+      }
+    }
+  }
+
+  /**
+   * An element created with new values replaces the canonical one and keeps its id.
+   */
+  @Test
+  public void testNewValues() {
+    final Entity e = Entity.of(1, "old", "renamed");
+    final Entity f = Entity.of(1, "new", "renamed");
+    assertNotSame(e, f);
+    assertEquals(e.id(), f.id());
+    assertSame(f, Entity.byId(e.id()));
+    assertSame(f, Entity.of(1, "new", "renamed"));
+  }
+}
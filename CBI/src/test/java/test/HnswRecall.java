@@ -0,0 +1,125 @@
+package test;
+
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+
+import it.unibo.conversational.algorithms.Hnsw;
+import it.unibo.conversational.database.SynonymDictionary;
+import it.unibo.conversational.database.SynonymVectors;
+import it.unibo.conversational.datatypes.Entity;
+
+/**
+ * Test the recall of the nearest neighbours against a brute-force cosine search on random unit vectors.
+ */
+public class HnswRecall {
+  private static final int DIM = 16;
+  private static final int N = 5000;
+  private static final int K = 10;
+
+  private static float[] unit(final Random r) {
+    final float[] v = new float[DIM];
+    double norm = 0;
+    for (int i = 0; i < DIM; i++) {
+      v[i] = (float) r.nextGaussian();
+      norm += v[i] * v[i];
+    }
+    for (int i = 0; i < DIM; i++) {
+      v[i] /= Math.sqrt(norm);
+    }
+    return v;
+  }
+
+  private static float dot(final float[] a, final float[] b) {
+    float res = 0;
+    for (int i = 0; i < DIM; i++) {
+      res += a[i] * b[i];
+    }
+    return res;
+  }
+
+  /** @return ids of the `k` vectors with the highest cosine with `q` */
+  private static int[] bruteForce(final float[][] vectors, final float[] q, final int k) {
+    final Integer[] ids = new Integer[vectors.length];
+    Arrays.setAll(ids, i -> i);
+    Arrays.sort(ids, (a, b) -> Float.compare(dot(vectors[b], q), dot(vectors[a], q)));
+    return Arrays.stream(ids, 0, k).mapToInt(Integer::intValue).toArray();
+  }
+
+  /**
+   * The graph finds at least 95% of the exact nearest neighbours.
+   */
+  @Test
+  public void testGraph() {
+    final Random r = new Random(11);
+    final float[][] vectors = new float[N][];
+    final Hnsw graph = new Hnsw(DIM, 16, 100, 0);
+    for (int i = 0; i < N; i++) {
+      vectors[i] = unit(r);
+      graph.add(i, vectors[i]);
+    }
+    int found = 0;
+    for (int t = 0; t < 200; t++) {
+      final float[] q = unit(r);
+      final BitSet exact = new BitSet();
+      Arrays.stream(bruteForce(vectors, q, K)).forEach(exact::set);
+      for (final int id: graph.search(q, K, 64)) {
+        found += exact.get(id) ? 1 : 0;
+      }
+    }
+    final double recall = found / (200.0 * K);
+    assertTrue("Recall " + recall, recall >= 0.95);
+  }
+
+  /**
+   * The index of the synonyms finds at least 95% of the synonyms with the nearest vectors.
+   * @throws Exception in case of error
+   */
+  @Test
+  public void testSynonymVectors() throws Exception {
+    final Random r = new Random(12);
+    final float[][] vectors = new float[N][];
+    final Path file = Files.createTempFile("vectors", ".txt");
+    file.toFile().deleteOnExit();
+    final SynonymDictionary.Builder syns = SynonymDictionary.builder();
+    try (BufferedWriter out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+      for (int i = 0; i < N; i++) {
+        vectors[i] = unit(r);
+        final StringBuilder line = new StringBuilder("w" + i + "\t");
+        for (final float c: vectors[i]) {
+          line.append(c).append(' ');
+        }
+        out.write(line.toString().trim());
+        out.newLine();
+        syns.add(ImmutableList.of("w" + i), Entity.of(i, "w" + i, "level"));
+      }
+    }
+    System.setProperty(SynonymVectors.PROPERTY, file.toString());
+    try {
+      final SynonymVectors.Index index = SynonymVectors.get().index(syns.build());
+      int found = 0;
+      for (int t = 0; t < 200; t++) {
+        final int w = r.nextInt(N);
+        final BitSet exact = new BitSet();
+        Arrays.stream(bruteForce(vectors, vectors[w], K)).forEach(exact::set);
+        final BitSet candidates = index.candidates(ImmutableList.of("w" + w), K);
+        candidates.and(exact);
+        found += candidates.cardinality();
+      }
+      final double recall = found / (200.0 * K);
+      assertTrue("Recall " + recall, recall >= 0.95);
+    } finally {
+      System.clearProperty(SynonymVectors.PROPERTY);
+    }
+  }
+}
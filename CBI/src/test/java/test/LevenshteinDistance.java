@@ -0,0 +1,65 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import edu.stanford.nlp.util.StringUtils;
+import it.unibo.conversational.algorithms.Levenshtein;
+
+/**
+ * Test the Levenshtein distance against the one of CoreNLP.
+ */
+public class LevenshteinDistance {
+  private static String word(final Random r, final int maxLength) {
+    final StringBuilder sb = new StringBuilder();
+    final int length = r.nextInt(maxLength + 1);
+    for (int i = 0; i < length; i++) {
+      sb.append(r.nextInt(10) == 0 ? (char) ('à' + r.nextInt(3)) : r.nextInt(50) == 0 ? '€' : (char) ('a' + r.nextInt(4)));
+    }
+    return sb.toString();
+  }
+
+  private static void check(final String a, final String b) {
+    final int expected = StringUtils.levenshteinDistance(a, b);
+    assertEquals(a + " " + b, expected, Levenshtein.distance(a, b));
+    for (int max = 0; max <= expected + 1; max++) {
+      final int d = Levenshtein.distance(a, b, max);
+      if (expected <= max) {
+        assertEquals(a + " " + b + " " + max, expected, d);
+      } else {
+        assertTrue(a + " " + b + " " + max, d > max && d <= expected);
+      }
+    }
+  }
+
+  /**
+   * Test short words (bit-parallel algorithm).
+   */
+  @Test
+  public void testShortWords() {
+    final Random r = new Random(0);
+    for (int i = 0; i < 20000; i++) {
+      check(word(r, 12), word(r, 12));
+    }
+    check("", "");
+    check("kitten", "sitting");
+  }
+
+  /**
+   * Test words around and above 64 characters (banded algorithm).
+   */
+  @Test
+  public void testLongWords() {
+    final Random r = new Random(1);
+    for (int i = 0; i < 500; i++) {
+      check(word(r, 140), word(r, 140));
+    }
+    final String a = word(r, 64).replace('€', 'a');
+    check(a, a + "b");
+    check(a + a, a + "c" + a);
+  }
+}
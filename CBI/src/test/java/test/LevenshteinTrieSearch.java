@@ -0,0 +1,67 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+import it.unibo.conversational.Utils;
+import it.unibo.conversational.algorithms.LevenshteinTrie;
+
+/**
+ * Test the search of the trie against a scan of all the words.
+ */
+public class LevenshteinTrieSearch {
+  private static final double[] THRESHOLDS = {0.3, 0.5, 0.6, 0.75, 0.8, 1.0};
+
+  private static String word(final Random r, final String alphabet) {
+    final StringBuilder sb = new StringBuilder();
+    final int length = 1 + r.nextInt(9);
+    for (int i = 0; i < length; i++) {
+      sb.append(alphabet.charAt(r.nextInt(alphabet.length())));
+    }
+    return sb.toString();
+  }
+
+  private static double similarity(final String a, final String b) {
+    return Utils.tokenSimilarity(Arrays.asList(a), Arrays.asList(b));
+  }
+
+  /**
+   * The words visited by the trie and above the threshold are the ones found by the scan.
+   */
+  @Test
+  public void testRandomWords() {
+    final Random r = new Random(1);
+    final List<String> words = Lists.newArrayList();
+    final LevenshteinTrie trie = new LevenshteinTrie();
+    for (int i = 0; i < 3000; i++) {
+      words.add(word(r, "abcdeABC"));
+      trie.add(words.get(i), i);
+    }
+    for (int q = 0; q < 300; q++) {
+      final String w = words.get(r.nextInt(words.size())) + (q % 3 == 0 ? "x" : "");
+      final double thr = THRESHOLDS[q % THRESHOLDS.length];
+      final Set<Integer> expected = Sets.newTreeSet();
+      for (int i = 0; i < words.size(); i++) {
+        if (similarity(w, words.get(i)) >= thr) {
+          expected.add(i);
+        }
+      }
+      final Set<Integer> found = Sets.newTreeSet();
+      trie.search(w, thr, (id, distance) -> {
+        if (similarity(w, words.get(id)) >= thr) {
+          found.add(id);
+        }
+      });
+      assertEquals(w + " " + thr, expected, found);
+    }
+  }
+}
@@ -0,0 +1,90 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+
+import org.apache.commons.lang3.tuple.Pair;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+
+import it.unibo.conversational.algorithms.Mapper;
+import it.unibo.conversational.algorithms.Parser.Type;
+import it.unibo.conversational.datatypes.Entity;
+import it.unibo.conversational.datatypes.Mapping;
+import it.unibo.conversational.datatypes.Ngram;
+
+/**
+ * Test the enumeration, the top-k and the count of the mappings against the previous recursive enumeration.
+ */
+public class MapperEnumeration {
+  /**
+   * The previous enumeration, copying the chain and the remaining n-grams at each step.
+   */
+  private static void expected(final List<Ngram> acc, final int coveredTokens, final List<Ngram> data, final int totalLenght, final double threshold, final int maxDist, final List<List<Ngram>> res) {
+    final List<Ngram> newData = Lists.newArrayList(data);
+    for (final Ngram r : data) {
+      final int diff = r.pos().getLeft() - (acc.isEmpty() ? 0 : acc.get(acc.size() - 1).pos().getRight());
+      final int newCoveredTokens = coveredTokens + r.pos().getRight() - r.pos().getLeft() + 1;
+      if (acc.isEmpty() || diff >= 1 && diff <= maxDist) {
+        final List<Ngram> newInt = Lists.newArrayList(acc);
+        newInt.add(r);
+        newData.remove(r);
+        if (newCoveredTokens >= threshold) {
+          res.add(newInt);
+        }
+        if (!newData.isEmpty() && newCoveredTokens + totalLenght - r.pos().getRight() >= threshold) {
+          expected(newInt, newCoveredTokens, newData, totalLenght, threshold, maxDist, res);
+        }
+      }
+    }
+  }
+
+  private static List<List<Ngram>> ngrams(final List<Mapping> mappings) {
+    return mappings.stream().map(m -> (List<Ngram>) m.ngrams).collect(Collectors.toList());
+  }
+
+  private static double score(final List<Ngram> mapping) {
+    return mapping.stream().mapToDouble(Ngram::similarity).sum();
+  }
+
+  /**
+   * Random n-grams, sorted by position; the top-k is the full enumeration sorted by decreasing score (stable).
+   */
+  @Test
+  public void testRandomNgrams() {
+    final Random r = new Random(11);
+    final ForkJoinPool pool = new ForkJoinPool(4);
+    try {
+      for (int i = 0; i < 3000; i++) {
+        final int tokens = 1 + r.nextInt(9);
+        final int maxDist = 1 + r.nextInt(3);
+        final List<Ngram> data = Lists.newArrayList();
+        for (int n = r.nextInt(14); n > 0; n--) {
+          final int begin = r.nextInt(tokens);
+          final int end = Math.min(tokens - 1, begin + r.nextInt(2));
+          data.add(new Ngram("t" + n, Type.VAL, Entity.of(n, "e" + n, "member"), r.nextInt(5) / 4.0, "s", Pair.of(begin, end)));
+        }
+        data.sort(Ngram::compareNgrams);
+        final double threshold = tokens * r.nextDouble();
+        final List<List<Ngram>> all = Lists.newArrayList();
+        expected(Lists.newArrayList(), 0, data, tokens, threshold, maxDist, all);
+        final String msg = data + " " + threshold + " " + maxDist;
+        assertEquals(msg, all, ngrams(Mapper.createMappings(Lists.newArrayList(data), tokens, threshold, maxDist)));
+        assertEquals(msg, all, ngrams(Mapper.streamMappings(data, tokens, threshold, maxDist).collect(Collectors.toList())));
+        assertEquals(msg, all, ngrams(Mapper.createMappings(data, tokens, threshold, maxDist, pool)));
+        assertEquals(msg, all.size(), Mapper.countMappings(data, tokens, threshold, maxDist));
+        final int k = 1 + r.nextInt(5);
+        final List<List<Ngram>> best = all.stream().sorted(Comparator.comparingDouble(MapperEnumeration::score).reversed()).limit(k).collect(Collectors.toList());
+        assertEquals(msg + " " + k, best, ngrams(Mapper.createMappings(data, tokens, threshold, maxDist, k)));
+      }
+    } finally {
+      pool.shutdown();
+    }
+  }
+}
@@ -0,0 +1,90 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.apache.commons.lang3.tuple.Pair;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+import it.unibo.conversational.algorithms.Mapper;
+import it.unibo.conversational.algorithms.Parser.Type;
+import it.unibo.conversational.datatypes.Entity;
+import it.unibo.conversational.datatypes.Ngram;
+
+/**
+ * Test the pruning of the n-grams covered by a confident n-gram against the previous implementation on sets of positions.
+ */
+public class MapperPrune {
+  private static final double THRESHOLD = 0.9;
+
+  /**
+   * The previous implementation.
+   * @param matches n-grams
+   * @param nGramSimThr similarity threshold of the confident n-grams
+   * @return the remaining n-grams
+   */
+  private static List<Ngram> expected(final List<Ngram> matches, final double nGramSimThr) {
+    final List<Ngram> validMatch = Lists.newArrayList(matches);
+    final List<Ngram> confidentMatch = validMatch.stream().filter(n -> n.similarity() >= nGramSimThr).collect(Collectors.toList());
+    confidentMatch.forEach(m -> {
+      final Set<Integer> range = IntStream.rangeClosed(m.pos().getLeft(), m.pos().getRight()).boxed().collect(Collectors.toSet());
+      final List<Ngram> toRemove = validMatch.stream().filter(n -> {
+        final Set<Integer> currange = IntStream.rangeClosed(n.pos().getLeft(), n.pos().getRight()).boxed().collect(Collectors.toSet());
+        return !m.equals(n) && (currange.size() < range.size() || currange.size() == range.size() && n.similarity() < nGramSimThr) && range.containsAll(currange);
+      }).collect(Collectors.toList());
+      validMatch.removeAll(toRemove);
+    });
+    return validMatch;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static List<Ngram> prune(final List<Ngram> matches) throws Exception {
+    final Method prune = Mapper.class.getDeclaredMethod("prune", List.class, double.class);
+    prune.setAccessible(true);
+    try {
+      return (List<Ngram>) prune.invoke(null, matches, THRESHOLD);
+    } catch (final InvocationTargetException e) {
+      throw (Exception) e.getCause();
+    }
+  }
+
+  /**
+   * Random n-grams, with equal n-grams and similarities around the threshold.
+   * @throws Exception in case of error
+   */
+  @Test
+  public void testRandomNgrams() throws Exception {
+    final Random r = new Random(1);
+    final double[] similarities = {0.5, 0.7, 0.9, 1.0, 0.8995, 0.9005};
+    for (int i = 0; i < 20000; i++) {
+      final int tokens = 1 + r.nextInt(8);
+      final List<Ngram> matches = Lists.newArrayList();
+      for (int n = r.nextInt(25); n > 0; n--) {
+        final int begin = r.nextInt(tokens);
+        final int end = Math.min(tokens - 1, begin + r.nextInt(3));
+        final Entity entity = Entity.of(r.nextInt(3), "e" + r.nextInt(3), "member");
+        matches.add(new Ngram("t" + begin + end, Type.VAL, entity, similarities[r.nextInt(similarities.length)], "s" + r.nextInt(2), Pair.of(begin, end)));
+      }
+      assertEquals(matches.toString(), expected(matches, THRESHOLD), prune(matches));
+    }
+  }
+
+  /**
+   * Positions beyond the bits of the sort keys are rejected.
+   * @throws Exception in case of error
+   */
+  @Test(expected = IllegalArgumentException.class)
+  public void testPositionOutOfRange() throws Exception {
+    prune(ImmutableList.of(new Ngram("t", Type.VAL, Entity.of(0, "e", "member"), 1.0, "s", Pair.of(0, 1 << 21))));
+  }
+}
@@ -0,0 +1,168 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+import it.unibo.conversational.Utils.DataType;
+import it.unibo.conversational.algorithms.FrontCodedStrings;
+import it.unibo.conversational.database.DBmanager;
+import it.unibo.conversational.database.MemberStore;
+import it.unibo.conversational.datatypes.Entity;
+
+/**
+ * Test the front coded strings and the member store against lists and maps on random strings.
+ */
+public class MemberStoreRoundTrip {
+  /** Characters of the random strings: ASCII, Latin-1, CJK, private use and a supplementary character. */
+  private static final String[] CHARS = { "a", "b", "z", "é", "ü", "中", "文", "", "😀" };
+
+  /**
+   * @return a random string, half of the times extending or cutting the previous one (so that strings share prefixes)
+   */
+  private static String string(final Random r, final String prev) {
+    final StringBuilder sb = new StringBuilder();
+    if (prev != null && r.nextBoolean()) {
+      final int cut = r.nextInt(prev.length() + 1);
+      sb.append(prev, 0, cut > 0 && Character.isHighSurrogate(prev.charAt(cut - 1)) ? cut - 1 : cut);
+    }
+    for (int n = r.nextInt(4); n > 0; n--) {
+      sb.append(CHARS[r.nextInt(CHARS.length)]);
+    }
+    return sb.toString();
+  }
+
+  /** @return the UTF-8 bytes compared as unsigned, i.e., the order of a binary collation */
+  private static int compareBytes(final String a, final String b) {
+    final byte[] x = a.getBytes(StandardCharsets.UTF_8);
+    final byte[] y = b.getBytes(StandardCharsets.UTF_8);
+    for (int i = 0; i < Math.min(x.length, y.length); i++) {
+      if (x[i] != y[i]) {
+        return (x[i] & 0xFF) - (y[i] & 0xFF);
+      }
+    }
+    return x.length - y.length;
+  }
+
+  /**
+   * Random strings, sorted and unsorted, are decoded and looked up as in a list.
+   */
+  @Test
+  public void testFrontCodedStrings() {
+    final Random r = new Random(0);
+    for (int i = 0; i < 200; i++) {
+      final List<String> strings = Lists.newArrayList();
+      for (int n = r.nextInt(100); n > 0; n--) {
+        strings.add(string(r, strings.isEmpty() ? null : strings.get(strings.size() - 1)));
+      }
+      final FrontCodedStrings unsorted = FrontCodedStrings.builder(false).addAll(strings).build();
+      assertEquals(strings.size(), unsorted.size());
+      for (int j = 0; j < strings.size(); j++) {
+        assertEquals(strings.get(j), unsorted.get(j));
+      }
+      strings.sort(FrontCodedStrings.ORDER);
+      final FrontCodedStrings sorted = new FrontCodedStrings(strings);
+      for (int j = 0; j < strings.size(); j++) {
+        assertEquals(strings.get(j), sorted.get(j));
+        assertEquals(strings.indexOf(strings.get(j)), sorted.indexOf(strings.get(j)));
+        if (j > 0) {
+          assertTrue(compareBytes(strings.get(j - 1), strings.get(j)) <= 0);
+        }
+      }
+      for (int j = 0; j < 20; j++) {
+        final String s = string(r, null);
+        int lowerBound = 0;
+        while (lowerBound < strings.size() && FrontCodedStrings.compare(strings.get(lowerBound), s) < 0) {
+          lowerBound++;
+        }
+        assertEquals(s, lowerBound, sorted.lowerBound(s));
+        assertEquals(s, strings.indexOf(s), sorted.indexOf(s));
+      }
+    }
+  }
+
+  /**
+   * Lookups on unsorted strings are not allowed.
+   */
+  @Test(expected = IllegalStateException.class)
+  public void testUnsortedLookup() {
+    FrontCodedStrings.builder(false).add("b").add("a").build().indexOf("a");
+  }
+
+  /**
+   * Random members with random synonyms (added in random order), the store returns the synonyms, the members and the levels of the members.
+   */
+  @Test
+  public void testMemberStore() {
+    final Random r = new Random(1);
+    for (int i = 0; i < 50; i++) {
+      final MemberStore.Builder builder = MemberStore.builder();
+      final int[] levels = new int[3];
+      final Entity[] levelEntities = new Entity[levels.length];
+      for (int l = 0; l < levels.length; l++) {
+        levelEntities[l] = Entity.of(l, "level" + l, 0, DataType.STRING);
+        levels[l] = builder.level(l, "level" + l, DataType.STRING, levelEntities[l]);
+      }
+      // members: (name, id, level), some names are shared by members of different levels
+      final List<String> names = Lists.newArrayList();
+      final Map<String, Set<Entity>> levelsOfMembers = Maps.newHashMap();
+      final List<Integer> ids = Lists.newArrayList();
+      for (int n = r.nextInt(200); n > 0; n--) {
+        final String name = r.nextInt(4) == 0 && !names.isEmpty() ? names.get(r.nextInt(names.size())) : string(r, names.isEmpty() ? null : names.get(names.size() - 1));
+        names.add(name);
+        ids.add(ids.size() * 7 + r.nextInt(7));
+      }
+      final List<Integer> order = Lists.newArrayList();
+      for (int m = 0; m < names.size(); m++) {
+        order.add(m);
+      }
+      order.sort((a, b) -> {
+        final int c = FrontCodedStrings.compare(names.get(a), names.get(b));
+        return c != 0 ? c : Integer.compare(ids.get(a), ids.get(b));
+      });
+      final Map<Integer, Entity> byId = Maps.newHashMap();
+      for (final int m: order) {
+        final int l = r.nextInt(levels.length);
+        builder.member(ids.get(m), names.get(m), levels[l]);
+        final Entity e = Entity.of(ids.get(m), names.get(m), DBmanager.tabMEMBER, ids.get(m), "level" + l, DataType.STRING);
+        byId.put(ids.get(m), e);
+        levelsOfMembers.computeIfAbsent(names.get(m), k -> Sets.newHashSet()).add(levelEntities[l]);
+      }
+      // synonyms: random tokens of random members, in random order
+      final Map<List<String>, Set<Entity>> synonyms = Maps.newHashMap();
+      final List<Integer> shuffled = Lists.newArrayList(byId.keySet());
+      Collections.shuffle(shuffled, r);
+      for (final int id: shuffled) {
+        for (int n = r.nextInt(3); n > 0; n--) {
+          final List<String> tokens = Lists.newArrayList();
+          for (int t = 1 + r.nextInt(2); t > 0; t--) {
+            tokens.add("t" + string(r, null));
+          }
+          builder.synonym(tokens, id);
+          synonyms.computeIfAbsent(tokens, k -> Sets.newHashSet()).add(byId.get(id));
+        }
+      }
+      final MemberStore store = builder.build();
+      assertEquals(levelsOfMembers, Maps.newHashMap(store.levelsOfMembers()));
+      for (final Map.Entry<List<String>, Set<Entity>> s: synonyms.entrySet()) {
+        final int id = store.indexOf(s.getKey());
+        assertTrue(s.getKey().toString(), id >= 0);
+        assertEquals(s.getKey(), store.synonym(id));
+        assertEquals(s.getValue(), Sets.newHashSet(store.entities(id)));
+      }
+      assertEquals(-1, store.indexOf(Lists.newArrayList("absent")));
+    }
+  }
+}
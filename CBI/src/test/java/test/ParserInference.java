@@ -0,0 +1,84 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.lang3.tuple.Pair;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+
+import it.unibo.conversational.Utils.DataType;
+import it.unibo.conversational.algorithms.Literals;
+import it.unibo.conversational.algorithms.Parser;
+import it.unibo.conversational.algorithms.Parser.Type;
+import it.unibo.conversational.datatypes.Entity;
+import it.unibo.conversational.datatypes.Mapping;
+import it.unibo.conversational.datatypes.Ngram;
+
+/**
+ * Test the inference of the selection clauses made of a single literal.
+ */
+public class ParserInference {
+  private static final Entity DAY = Entity.of(1, "the_date", 1, DataType.DATE);
+  private static final Entity YEAR = Entity.of(2, "the_year", 1, DataType.NUMERIC);
+  private static final Entity SUM = Entity.of(3, "sum", "groupbyoperator");
+
+  private static Ngram val(final String literal) {
+    return new Ngram(literal, Type.VAL, Entity.of(literal, Literals.recognize(literal).dataType()), Pair.of(1, 1));
+  }
+
+  /** @return the selection clause of the tree, after the inference */
+  private static Ngram infer(final Ngram tree, final Map<String, Set<Entity>> levelsOfMembers) {
+    Parser.infer(tree, ImmutableMap.of("unit_sales", ImmutableSet.of(SUM)), ImmutableMap.of(), levelsOfMembers, ImmutableSet.of(YEAR));
+    return Ngram.simpleClauses(tree).stream().filter(c -> c.type.equals(Type.SC)).findAny().get();
+  }
+
+  /** @return the selection clause of the parsed query made of a measure and the literal, after the inference */
+  private static Ngram inferQuery(final String literal, final Map<String, Set<Entity>> levelsOfMembers) {
+    final Ngram mea = new Ngram("unit_sales", Type.MEA, Entity.of(4, "unit_sales", "measure"), Pair.of(0, 0));
+    return infer(Parser.parse(new Mapping(ImmutableList.of(mea, val(literal)))).get().ngrams.get(0), levelsOfMembers);
+  }
+
+  /**
+   * A query with only a date: there is no interpretation, and the selection clause of the date alone is left unbound
+   * if no member has the same name.
+   */
+  @Test
+  public void testOnlyDate() {
+    assertFalse(Parser.parse(new Mapping(ImmutableList.of(val("2019-01-31")))).isPresent());
+    final Ngram unbound = infer(new Ngram(Type.SC, ImmutableList.of(val("2019-01-31"))), ImmutableMap.of());
+    assertEquals(1, unbound.children.size());
+    assertEquals(DataType.DATE, unbound.children.get(0).typeInDB());
+    final Ngram bound = infer(new Ngram(Type.SC, ImmutableList.of(val("2019-01-31"))), ImmutableMap.of("2019-01-31", ImmutableSet.of(DAY)));
+    assertEquals(3, bound.children.size());
+    assertEquals(DAY, bound.children.get(0).mde());
+  }
+
+  /**
+   * A dangling date is bound to the level of the member with the same name, if any.
+   */
+  @Test
+  public void testDanglingDate() {
+    final Ngram bound = inferQuery("2019-01-31", ImmutableMap.of("2019-01-31", ImmutableSet.of(DAY)));
+    assertEquals(3, bound.children.size());
+    assertEquals(DAY, bound.children.get(0).mde());
+    assertEquals(Type.COP, bound.children.get(1).type);
+    assertEquals(1, inferQuery("2019-01-31", ImmutableMap.of()).children.size());
+  }
+
+  /**
+   * A query with only a year: the year is bound to a year level.
+   */
+  @Test
+  public void testDanglingYear() {
+    final Ngram bound = inferQuery("2019", ImmutableMap.of());
+    assertEquals(3, bound.children.size());
+    assertEquals(YEAR, bound.children.get(0).mde());
+  }
+}
@@ -0,0 +1,55 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.apache.commons.lang3.tuple.Pair;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import it.unibo.conversational.algorithms.Mapper;
+import it.unibo.conversational.algorithms.Parser;
+import it.unibo.conversational.algorithms.Parser.Type;
+import it.unibo.conversational.datatypes.Entity;
+import it.unibo.conversational.datatypes.Ngram;
+
+/**
+ * Test the parsing of the lattice of the n-grams against the parsing of each mapping.
+ */
+public class ParserLattice {
+  private static final Type[] TYPES = { Type.MEA, Type.MEA, Type.OP, Type.GB, Type.ATTR, Type.ATTR, Type.VAL, Type.COP, Type.AND, Type.OR, Type.COUNT, Type.FACT };
+
+  /**
+   * Random n-grams with random types and similarities, the best interpretation is the one of the mappings.
+   */
+  @Test
+  public void testRandomNgrams() {
+    final Random r = new Random(5);
+    long mappings = 0;
+    long types = 0;
+    for (int i = 0; i < 1500; i++) {
+      final int tokens = 1 + r.nextInt(8);
+      final int maxDist = 1 + r.nextInt(2);
+      final List<Ngram> data = Lists.newArrayList();
+      for (int n = r.nextInt(13); n > 0; n--) {
+        final int begin = r.nextInt(tokens);
+        final int end = Math.min(tokens - 1, begin + r.nextInt(2));
+        data.add(new Ngram("t" + n, TYPES[r.nextInt(TYPES.length)], Entity.of(n, "e" + n, "member"), r.nextInt(5) / 4.0, "s", Pair.of(begin, end)));
+      }
+      data.sort(Ngram::compareNgrams);
+      final double threshold = tokens * r.nextDouble();
+      final Map<String, Object> stats = Maps.newHashMap();
+      assertEquals(data + " " + threshold + " " + maxDist,
+          Parser.parse(Mapper.streamMappings(data, tokens, threshold, maxDist)), Parser.parse(data, tokens, threshold, maxDist, stats));
+      mappings += Mapper.countMappings(data, tokens, threshold, maxDist);
+      types += (Long) stats.get("parse_types");
+    }
+    assertTrue(types + " " + mappings, types < mappings);
+  }
+}
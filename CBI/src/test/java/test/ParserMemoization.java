@@ -0,0 +1,116 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Field;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Random;
+import java.util.Set;
+import java.util.Stack;
+
+import org.apache.commons.lang3.tuple.Pair;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+import it.unibo.conversational.algorithms.Parser;
+import it.unibo.conversational.algorithms.Parser.Rule;
+import it.unibo.conversational.algorithms.Parser.Type;
+import it.unibo.conversational.datatypes.Entity;
+import it.unibo.conversational.datatypes.Mapping;
+import it.unibo.conversational.datatypes.Ngram;
+
+/**
+ * Test the parsing with memoization against the rewriting without memoization on random mappings.
+ */
+public class ParserMemoization {
+  private static final Type[] TYPES = { Type.MEA, Type.MEA, Type.OP, Type.GB, Type.ATTR, Type.ATTR, Type.VAL, Type.COP, Type.AND, Type.OR, Type.COUNT, Type.FACT };
+
+  @SuppressWarnings("unchecked")
+  private static List<Rule[]> rules() throws Exception {
+    final Field rules = Parser.class.getDeclaredField("RULES");
+    rules.setAccessible(true);
+    return (List<Rule[]>) rules.get(null);
+  }
+
+  private static Type ret(final Rule rule) throws Exception {
+    final Field ret = Rule.class.getDeclaredField("ret");
+    ret.setAccessible(true);
+    return (Type) ret.get(rule);
+  }
+
+  /**
+   * The rewriting without memoization, every sentence in the search space is expanded.
+   * @param rules rules of the parsing
+   * @param mapping mapping to be translated
+   * @return translated sentences, in order
+   * @throws Exception in case of error
+   */
+  private static Set<Mapping> expected(final List<Rule[]> rules, final Mapping mapping) throws Exception {
+    final Set<Mapping> t = Sets.newLinkedHashSet();
+    final Stack<Mapping> s = new Stack<Mapping>();
+    s.push(mapping);
+    while (!s.isEmpty()) {
+      boolean isChanged = false;
+      final List<Ngram> sentence = s.pop().ngrams;
+      for (final Rule[] rul : rules) {
+        for (int i = 0; i < sentence.size(); i++) {
+          for (final Rule r : rul) {
+            // the size of the rule is the one of the sub-sentence it matches
+            int size = 1;
+            while (i + size <= sentence.size() && !r.match(sentence.subList(i, i + size))) {
+              size++;
+            }
+            if (i + size <= sentence.size()) {
+              s.push(new Mapping(ImmutableList.<Ngram>builder().addAll(sentence.subList(0, i))
+                  .add(new Ngram(ret(r), sentence.subList(i, i + size))).addAll(sentence.subList(i + size, sentence.size())).build()));
+              isChanged = true;
+              i += size - 1;
+              break;
+            }
+          }
+        }
+      }
+      if (!isChanged) {
+        t.add(new Mapping(sentence));
+      }
+    }
+    return t;
+  }
+
+  private static Optional<Mapping> best(final Set<Mapping> res) {
+    return res.stream().filter(s -> s.ngrams.stream().anyMatch(n -> n.type.equals(Type.Q))).max(Mapping::compareMappings);
+  }
+
+  /**
+   * Random mappings, the translated sentences and the best one are the same with and without memoization.
+   * @throws Exception in case of error
+   */
+  @Test
+  public void testRandomMappings() throws Exception {
+    final List<Rule[]> rules = rules();
+    final Random r = new Random(2);
+    long deduplicated = 0;
+    for (int i = 0; i < 2000; i++) {
+      final List<Ngram> ngrams = Lists.newArrayList();
+      for (int n = 1 + r.nextInt(7); n > 0; n--) {
+        final int p = ngrams.size();
+        ngrams.add(new Ngram("t" + p, TYPES[r.nextInt(TYPES.length)], Entity.of(p, "e" + p, "member"), r.nextInt(5) / 4.0, "s", Pair.of(p, p)));
+      }
+      final Mapping mapping = new Mapping(ngrams);
+      final Map<String, Object> stats = Maps.newHashMap();
+      final Set<Mapping> expected = expected(rules, mapping);
+      final Set<Mapping> actual = Parser.parse(rules, mapping, stats);
+      assertEquals(mapping.toString(), Lists.newArrayList(expected), Lists.newArrayList(actual));
+      assertEquals(mapping.toString(), best(expected), Parser.parse(mapping));
+      deduplicated += (Long) stats.get("parse_deduplicated");
+    }
+    assertTrue(deduplicated > 0);
+  }
+}
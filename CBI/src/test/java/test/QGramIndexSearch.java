@@ -0,0 +1,133 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+import it.unibo.conversational.Utils;
+import it.unibo.conversational.algorithms.QGramIndex;
+
+/**
+ * Test the candidates of the q-gram index against a scan of all the lists of tokens.
+ */
+public class QGramIndexSearch {
+  private static final double[] THRESHOLDS = {0.3, 0.45, 0.5, 0.6, 0.75, 0.8, 0.9, 1.0};
+
+  private static String word(final Random r, final String alphabet) {
+    final StringBuilder sb = new StringBuilder();
+    final int length = 1 + r.nextInt(8);
+    for (int i = 0; i < length; i++) {
+      sb.append(alphabet.charAt(r.nextInt(alphabet.length())));
+    }
+    return sb.toString();
+  }
+
+  /**
+   * @param r random generator
+   * @return one to three tokens, the same token is repeated with probability 1/4
+   */
+  private static List<String> tokens(final Random r) {
+    final List<String> tokens = Lists.newArrayList();
+    final int n = 1 + r.nextInt(3);
+    for (int i = 0; i < n; i++) {
+      tokens.add(i > 0 && r.nextInt(4) == 0 ? tokens.get(r.nextInt(i)) : word(r, "abcdeAB"));
+    }
+    return tokens;
+  }
+
+  /**
+   * The candidates above the threshold are the lists found by the scan, also with repeated tokens.
+   */
+  @Test
+  public void testRandomLists() {
+    final Random r = new Random(7);
+    final List<List<String>> lists = Lists.newArrayList();
+    final QGramIndex index = new QGramIndex();
+    for (int i = 0; i < 4000; i++) {
+      lists.add(tokens(r));
+      index.add(lists.get(i), i);
+    }
+    for (int q = 0; q < 400; q++) {
+      final List<String> tokens;
+      if (q % 2 == 0) {
+        tokens = Lists.newArrayList(lists.get(r.nextInt(lists.size())));
+        if (q % 4 == 0) {
+          tokens.set(0, tokens.get(0) + "c");
+        }
+        Collections.shuffle(tokens, r);
+      } else {
+        tokens = tokens(r);
+      }
+      final double thr = THRESHOLDS[q % THRESHOLDS.length];
+      final Set<Integer> expected = Sets.newTreeSet();
+      for (int i = 0; i < lists.size(); i++) {
+        if (Utils.tokenSimilarity(tokens, lists.get(i)) >= thr) {
+          expected.add(i);
+        }
+      }
+      final BitSet candidates = new BitSet();
+      index.search(tokens, thr, candidates);
+      final Set<Integer> found = Sets.newTreeSet();
+      for (int i = candidates.nextSetBit(0); i >= 0; i = candidates.nextSetBit(i + 1)) {
+        if (Utils.tokenSimilarity(tokens, lists.get(i)) >= thr) {
+          found.add(i);
+        }
+      }
+      assertEquals(tokens + " " + thr, expected, found);
+    }
+  }
+
+  /**
+   * The written index, searched in place, returns the candidates of the index.
+   * @throws IOException in case of error
+   */
+  @Test
+  public void testWrittenIndex() throws IOException {
+    final Random r = new Random(8);
+    final QGramIndex index = new QGramIndex();
+    for (int i = 0; i < 4000; i++) {
+      if (r.nextInt(10) > 0) { // some ids are missing
+        index.add(r.nextInt(50) == 0 ? Lists.newArrayList("İ" + word(r, "ab")) : tokens(r), i);
+      }
+    }
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (DataOutputStream out = new DataOutputStream(bytes)) {
+      out.writeLong(-1); // the index does not start at 0
+      index.write(out);
+    }
+    final ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+    final QGramIndex.Source source = new QGramIndex.Source() {
+      @Override
+      public int getInt(final long position) {
+        return buffer.getInt((int) position);
+      }
+
+      @Override
+      public long getLong(final long position) {
+        return buffer.getLong((int) position);
+      }
+    };
+    for (int q = 0; q < 400; q++) {
+      final List<String> tokens = tokens(r);
+      final double thr = q % 10 == 0 ? 0 : THRESHOLDS[q % THRESHOLDS.length];
+      final BitSet expected = new BitSet();
+      index.search(tokens, thr, expected);
+      final BitSet found = new BitSet();
+      QGramIndex.search(source, Long.BYTES, tokens, thr, found);
+      assertEquals(tokens + " " + thr, expected, found);
+    }
+  }
+}